@@ -18,6 +18,11 @@ public class Akelarre {
 	 */
 	public static final int DEFAULT_NUM_ROUNDS = 4;
 
+	/**
+	 * The size of a block in bytes.
+	 */
+	public static final int BLOCK_SIZE = 16;
+
 	/**
 	 * The number of rounds to run.
 	 */
@@ -26,12 +31,12 @@ public class Akelarre {
 	/**
 	 * A bitmask constant that is used frequently.
 	 */
-	private static final int LAST_7_BITS = 0x0000007F;
+	static final int LAST_7_BITS = 0x0000007F;
 
 	/**
-	 * An instance of the key scheduler.
+	 * Masks the lower word of a long.
 	 */
-	private KeyScheduler scheduler;
+	static final long MASK = 0xFFFFFFFFL;
 
 
 	/**
@@ -45,10 +50,21 @@ public class Akelarre {
 	private int[] Z;
 
 	/**
-	 * Decryption keys
+	 * Decryption keys, fetched from the scheduled key on first use
 	 */
 	private int[] D;
 
+	/**
+	 * The scheduled key this cipher runs with.
+	 */
+	private ScheduledKey key;
+
+	/**
+	 * Scratch state used by the byte[] block functions so that they do not
+	 * allocate.
+	 */
+	private final int[] state = new int[4];
+
 	
 	public static int[] hexStringToIntegerArray(String hexString) {
 		int[] k = new int[hexString.length() / 8];
@@ -185,17 +201,54 @@ public class Akelarre {
 
 	/**
 	 * Constructs the akelarre cipher with a number of rounds, key size,
-	 * and a specified key.
+	 * and a specified key. The key is scheduled here, unless the shared
+	 * KeyScheduleCache is turned on with akelarre.keycache=true, in which
+	 * case a recently used key is not scheduled again.
 	 *
 	 * @param num_rounds	Number of rounds
 	 * @param key_size		Key size
 	 * @param key			The encryption key
 	 */
 	public Akelarre(int num_rounds,int key_size,int[] key){
-		this.num_rounds = num_rounds;
-		scheduler = new KeyScheduler(num_rounds,key_size);
-		Z = scheduler.schedule(key);
-		D = scheduler.createDecryptionSubkeys(Z);
+		this(KeyScheduleCache.SHARED_ENABLED ? KeyScheduleCache.shared().get(num_rounds,key_size,key)
+				: ScheduledKey.schedule(num_rounds,key_size,key));
+	}
+
+	/**
+	 * Constructs the akelarre cipher around a key that has already been
+	 * scheduled. This does no key scheduling, so it is the cheap way to
+	 * give each thread its own cipher for a shared key.
+	 *
+	 * @param key	The scheduled key
+	 */
+	public Akelarre(ScheduledKey key){
+		this.key = key;
+		this.num_rounds = key.getRounds();
+		Z = key.encryptionKeys();
+	}
+
+	/**
+	 * @return The scheduled key this cipher runs with.
+	 */
+	public ScheduledKey getKey(){
+		return key;
+	}
+
+	/**
+	 * @return The encryption subkeys, shared with this instance.
+	 */
+	int[] encryptionKeys(){
+		return Z;
+	}
+
+	/**
+	 * @return The decryption subkeys, shared with this instance.
+	 */
+	int[] decryptionKeys(){
+		if( D == null ){
+			D = key.decryptionKeys();
+		}
+		return D;
 	}
 
 	/**
@@ -208,6 +261,9 @@ public class Akelarre {
         if( plaintext.length != 4 ){
 			throw new IllegalArgumentException();
 		}
+		if( AkelarreMetrics.ENABLED ){
+			AkelarreMetrics.shared().block(true);
+		}
 		return encrypt(plaintext.clone(),Z);
 	}
 
@@ -218,7 +274,199 @@ public class Akelarre {
 	 * @return plain text
 	 */
 	public int[] decrypt( int[] cipherText ){
-		return encrypt(cipherText.clone(),D);
+		if( AkelarreMetrics.ENABLED ){
+			AkelarreMetrics.shared().block(false);
+		}
+		return encrypt(cipherText.clone(),decryptionKeys());
+	}
+
+	/**
+	 * Encrypts a single block from in at inOff and writes the cipher text to
+	 * out at outOff. Nothing is allocated, and in and out may be the same
+	 * array.
+	 *
+	 * @param in	The plaintext words
+	 * @param inOff	Offset of the block in in
+	 * @param out	The array receiving the cipher text
+	 * @param outOff	Offset of the block in out
+	 */
+	public void encryptBlock( int[] in, int inOff, int[] out, int outOff ){
+		if( AkelarreMetrics.ENABLED ){
+			AkelarreMetrics.shared().block(true);
+		}
+		System.arraycopy(in, inOff, out, outOff, 4);
+		crypt(out, outOff, Z, num_rounds, doRotate);
+	}
+
+	/**
+	 * Decrypts a single block from in at inOff and writes the plaintext to
+	 * out at outOff. Nothing is allocated, and in and out may be the same
+	 * array.
+	 *
+	 * @param in	The cipher text words
+	 * @param inOff	Offset of the block in in
+	 * @param out	The array receiving the plaintext
+	 * @param outOff	Offset of the block in out
+	 */
+	public void decryptBlock( int[] in, int inOff, int[] out, int outOff ){
+		if( AkelarreMetrics.ENABLED ){
+			AkelarreMetrics.shared().block(false);
+		}
+		System.arraycopy(in, inOff, out, outOff, 4);
+		crypt(out, outOff, decryptionKeys(), num_rounds, doRotate);
+	}
+
+	/**
+	 * Encrypts BLOCK_SIZE bytes from in at inOff into out at outOff. Words
+	 * are read and written big-endian. Uses the instance scratch state, so
+	 * an instance must not be shared between threads on this path.
+	 *
+	 * @param in	The plaintext bytes
+	 * @param inOff	Offset of the block in in
+	 * @param out	The array receiving the cipher text
+	 * @param outOff	Offset of the block in out
+	 */
+	public void encryptBlock( byte[] in, int inOff, byte[] out, int outOff ){
+		if( AkelarreMetrics.ENABLED ){
+			AkelarreMetrics.shared().block(true);
+		}
+		unpack(in, inOff, state, 0);
+		crypt(state, 0, Z, num_rounds, doRotate);
+		pack(state, 0, out, outOff);
+	}
+
+	/**
+	 * Decrypts BLOCK_SIZE bytes from in at inOff into out at outOff. Words
+	 * are read and written big-endian. Uses the instance scratch state, so
+	 * an instance must not be shared between threads on this path.
+	 *
+	 * @param in	The cipher text bytes
+	 * @param inOff	Offset of the block in in
+	 * @param out	The array receiving the plaintext
+	 * @param outOff	Offset of the block in out
+	 */
+	public void decryptBlock( byte[] in, int inOff, byte[] out, int outOff ){
+		if( AkelarreMetrics.ENABLED ){
+			AkelarreMetrics.shared().block(false);
+		}
+		unpack(in, inOff, state, 0);
+		crypt(state, 0, decryptionKeys(), num_rounds, doRotate);
+		pack(state, 0, out, outOff);
+	}
+
+	/**
+	 * Encrypts a block given as two longs, hi holding words 0 and 1 and lo
+	 * words 2 and 3.
+	 *
+	 * @param hi	The most significant 64 bits of the plaintext
+	 * @param lo	The least significant 64 bits of the plaintext
+	 * @return {hi, lo} of the cipher text
+	 */
+	public long[] encrypt( long hi, long lo ){
+		if( AkelarreMetrics.ENABLED ){
+			AkelarreMetrics.shared().block(true);
+		}
+		long[] s = {hi, lo};
+		crypt(s, 0, Z, num_rounds, doRotate);
+		return s;
+	}
+
+	/**
+	 * Decrypts a block given as two longs.
+	 *
+	 * @param hi	The most significant 64 bits of the cipher text
+	 * @param lo	The least significant 64 bits of the cipher text
+	 * @return {hi, lo} of the plaintext
+	 */
+	public long[] decrypt( long hi, long lo ){
+		if( AkelarreMetrics.ENABLED ){
+			AkelarreMetrics.shared().block(false);
+		}
+		long[] s = {hi, lo};
+		crypt(s, 0, decryptionKeys(), num_rounds, doRotate);
+		return s;
+	}
+
+	/**
+	 * Encrypts the block of two longs in in at inOff into out at outOff
+	 * without allocating.
+	 *
+	 * @param in	The plaintext
+	 * @param inOff	Offset of the block in in
+	 * @param out	The array receiving the cipher text
+	 * @param outOff	Offset of the block in out
+	 */
+	public void encryptBlock( long[] in, int inOff, long[] out, int outOff ){
+		if( AkelarreMetrics.ENABLED ){
+			AkelarreMetrics.shared().block(true);
+		}
+		long hi = in[inOff], lo = in[inOff+1];
+		out[outOff]   = hi;
+		out[outOff+1] = lo;
+		crypt(out, outOff, Z, num_rounds, doRotate);
+	}
+
+	/**
+	 * Decrypts the block of two longs in in at inOff into out at outOff
+	 * without allocating.
+	 *
+	 * @param in	The cipher text
+	 * @param inOff	Offset of the block in in
+	 * @param out	The array receiving the plaintext
+	 * @param outOff	Offset of the block in out
+	 */
+	public void decryptBlock( long[] in, int inOff, long[] out, int outOff ){
+		if( AkelarreMetrics.ENABLED ){
+			AkelarreMetrics.shared().block(false);
+		}
+		long hi = in[inOff], lo = in[inOff+1];
+		out[outOff]   = hi;
+		out[outOff+1] = lo;
+		crypt(out, outOff, decryptionKeys(), num_rounds, doRotate);
+	}
+
+	/**
+	 * Encrypts blocks consecutive blocks of four words in a, starting at
+	 * off, in place. The blocks are handed to the block engine, which may
+	 * process several of them at once.
+	 *
+	 * @param a	The plaintext words
+	 * @param off	Offset of the first block in a
+	 * @param blocks	The number of blocks
+	 */
+	public void encryptBlocks( int[] a, int off, int blocks ){
+		AkelarreEvents.BulkCrypt event = AkelarreEvents.bulk();
+		long st = AkelarreMetrics.ENABLED ? System.nanoTime() : 0;
+		BlockEngines.get().crypt(a, off, blocks, Z, num_rounds, doRotate);
+		bulk(true, blocks, st, event);
+	}
+
+	/**
+	 * Decrypts blocks consecutive blocks of four words in a, starting at
+	 * off, in place.
+	 *
+	 * @param a	The cipher text words
+	 * @param off	Offset of the first block in a
+	 * @param blocks	The number of blocks
+	 */
+	public void decryptBlocks( int[] a, int off, int blocks ){
+		AkelarreEvents.BulkCrypt event = AkelarreEvents.bulk();
+		long st = AkelarreMetrics.ENABLED ? System.nanoTime() : 0;
+		BlockEngines.get().crypt(a, off, blocks, decryptionKeys(), num_rounds, doRotate);
+		bulk(false, blocks, st, event);
+	}
+
+	/**
+	 * Records a bulk call over blocks blocks that started at st, in the
+	 * metrics and as a flight recorder event.
+	 */
+	private static void bulk( boolean encrypt, int blocks, long st, AkelarreEvents.BulkCrypt event ){
+		if( AkelarreMetrics.ENABLED ){
+			AkelarreMetrics m = AkelarreMetrics.shared();
+			m.blocks(encrypt, blocks);
+			m.bulk((long)blocks*BLOCK_SIZE, System.nanoTime() - st);
+		}
+		event.end((long)blocks*BLOCK_SIZE, "BLOCKS", encrypt);
 	}
 
 	/**
@@ -229,79 +477,174 @@ public class Akelarre {
 	 * Based on the Schnier paper
 	 */
 	public int[] encrypt( int[] a, int[] k){
+		crypt(a, 0, k, num_rounds, doRotate);
+		return a;
+	}
 
-
-		//int[] a = plaintext;
+	/**
+	 * The round function. Encrypts the four words of a starting at off in
+	 * place with the subkeys k. The state is held as two longs, hi being
+	 * words 0 and 1 and lo words 2 and 3, so the 128 bit rotation costs a
+	 * constant number of shifts.
+	 *
+	 * @param a	The state
+	 * @param off	Offset of the block in a
+	 * @param k	The subkeys, 13*rounds+9 of them
+	 * @param rounds	The number of rounds to run
+	 * @param rotate	Whether the 128 bit rotations take place
+	 */
+	static void crypt( int[] a, int off, int[] k, int rounds, boolean rotate ){
 
 		//Initialization
-		a[0] += k[0];
-		a[1] ^= k[1];
-		a[2] ^= k[2];
-		a[3] += k[3];
+		long hi = ((long)(a[off]   + k[0]) << 32) | ((a[off+1] ^ k[1]) & MASK);
+		long lo = ((long)(a[off+2] ^ k[2]) << 32) | ((a[off+3] + k[3]) & MASK);
 
-        int P1, P2, t0, t1;
 		//Begin Rounds
-		for( int r=0; r < num_rounds; r++){
+		for( int r=0; r < rounds; r++){
 
 			//Step 1,2,3
+			if( rotate ){
+				int n = k[13*r+4] & LAST_7_BITS;
+				long h = rotl128Hi(hi, lo, n);
+				lo = rotl128Lo(hi, lo, n);
+				hi = h;
+			}
 
-			if( doRotate )
-				rotl128(a,  k[13*r+4] & LAST_7_BITS);//Z[num_rounds+1][0] & LAST_7_BITS);
-
-			//Step 4
-			P1 = a[0] ^ a[2]; //W0
-			P2 = a[1] ^ a[3]; //W1
-
-			t1 = rotl31(P1,P2&0x1f);
-			t1+= k[13*r+5];
-			t1 = rotl1(t1,(P1>>>5)&0x1f);
-			t1+= k[13*r+6];
-			t1 = rotl31(t1,(P1>>>10) &0x1f);
-			t1+= k[13*r+7];
-			t1 = rotl1(t1,(P1>>>15) &0x1f);
-			t1+= k[13*r+8];
-			t1 = rotl31(t1,(P1>>>20)&0xf);
-			t1+= k[13*r+9];
-			t1 = rotl1(t1,(P1>>>24)&0xf);
-			t1+= k[13*r+10];
-
-			t0 = rotl1(t1,P1&0x1f);
-			t0+= k[13*r+11];
-			t0 = rotl31(t0,(P1>>>5)&0x1f);
-			t0+= k[13*r+12];
-			t0 = rotl1(t0,(P1>>>10)&0x1f);
-			t0+= k[13*r+13];
-			t0 = rotl31(t0,(P1>>>15)&0x1f);
-			t0+= k[13*r+14];
-			t0 = rotl1(t0,(P1>>>20)&0xf);
-			t0+= k[13*r+15];
-			t0 = rotl31(t0,(P1>>>24)&0xf);
-			t0+= k[13*r+16];
-
-
-			//Step 6
-			a[0] ^=t1;
-			a[2] ^=t1;
-			a[1] ^=t0;
-			a[3] ^=t0;
-
-			//End Rounds
+			//Step 4,5,6
+			long m = mix(hi ^ lo, k, 13*r+5);
+			hi ^= m;
+			lo ^= m;
 		}
 
 		//Output Transformation
 		//Step 1,2,3
+		if( rotate ){
+			int n = k[13*rounds+4] & LAST_7_BITS;
+			long h = rotl128Hi(hi, lo, n);
+			lo = rotl128Lo(hi, lo, n);
+			hi = h;
+		}
 
-		if( doRotate )
-			rotl128(a,  k[13*num_rounds+4] & LAST_7_BITS);
+		//Step 4
+		a[off]   = (int)(hi >>> 32) + k[13*rounds+5];
+		a[off+1] = (int)hi          ^ k[13*rounds+6];
+		a[off+2] = (int)(lo >>> 32) ^ k[13*rounds+7];
+		a[off+3] = (int)lo          + k[13*rounds+8];
+	}
+
+	/**
+	 * The round function on a block held as two longs, s[off] being the
+	 * most significant half. Encrypts in place with the subkeys k.
+	 *
+	 * @param s	The state
+	 * @param off	Offset of the block in s
+	 * @param k	The subkeys, 13*rounds+9 of them
+	 * @param rounds	The number of rounds to run
+	 * @param rotate	Whether the 128 bit rotations take place
+	 */
+	static void crypt( long[] s, int off, int[] k, int rounds, boolean rotate ){
+		long hi = s[off], lo = s[off+1];
+
+		//Initialization
+		hi = ((long)((int)(hi >>> 32) + k[0]) << 32) | (((int)hi ^ k[1]) & MASK);
+		lo = ((long)((int)(lo >>> 32) ^ k[2]) << 32) | (((int)lo + k[3]) & MASK);
+
+		//Begin Rounds
+		for( int r=0; r < rounds; r++){
+
+			//Step 1,2,3
+			if( rotate ){
+				int n = k[13*r+4] & LAST_7_BITS;
+				long h = rotl128Hi(hi, lo, n);
+				lo = rotl128Lo(hi, lo, n);
+				hi = h;
+			}
+
+			//Step 4,5,6
+			long m = mix(hi ^ lo, k, 13*r+5);
+			hi ^= m;
+			lo ^= m;
+		}
+
+		//Output Transformation
+		//Step 1,2,3
+		if( rotate ){
+			int n = k[13*rounds+4] & LAST_7_BITS;
+			long h = rotl128Hi(hi, lo, n);
+			lo = rotl128Lo(hi, lo, n);
+			hi = h;
+		}
 
 		//Step 4
-		a[0] = a[0]+k[13*num_rounds+5];
-		a[1] = a[1]^k[13*num_rounds+6];
-		a[2] = a[2]^k[13*num_rounds+7];
-		a[3] = a[3]+k[13*num_rounds+8];
+		s[off]   = ((long)((int)(hi >>> 32) + k[13*rounds+5]) << 32) | (((int)hi ^ k[13*rounds+6]) & MASK);
+		s[off+1] = ((long)((int)(lo >>> 32) ^ k[13*rounds+7]) << 32) | (((int)lo + k[13*rounds+8]) & MASK);
+	}
 
-		//Step 5
-		return a;
+	/**
+	 * Steps 4 and 5 of a round. Both halves of the state are xored with the
+	 * same value, built from W0 and W1, which are the two halves of hi^lo.
+	 *
+	 * @param p	hi ^ lo
+	 * @param k	The subkeys
+	 * @param kb	Index of the first of the twelve subkeys of the round
+	 * @return t1 in the upper and t0 in the lower half
+	 */
+	static long mix( long p, int[] k, int kb ){
+		int P1 = (int)(p >>> 32); //W0
+		int P2 = (int)p;          //W1
+		int t0, t1;
+
+		t1 = rotl31(P1,P2&0x1f);
+		t1+= k[kb];
+		t1 = rotl1(t1,(P1>>>5)&0x1f);
+		t1+= k[kb+1];
+		t1 = rotl31(t1,(P1>>>10) &0x1f);
+		t1+= k[kb+2];
+		t1 = rotl1(t1,(P1>>>15) &0x1f);
+		t1+= k[kb+3];
+		t1 = rotl31(t1,(P1>>>20)&0xf);
+		t1+= k[kb+4];
+		t1 = rotl1(t1,(P1>>>24)&0xf);
+		t1+= k[kb+5];
+
+		t0 = rotl1(t1,P1&0x1f);
+		t0+= k[kb+6];
+		t0 = rotl31(t0,(P1>>>5)&0x1f);
+		t0+= k[kb+7];
+		t0 = rotl1(t0,(P1>>>10)&0x1f);
+		t0+= k[kb+8];
+		t0 = rotl31(t0,(P1>>>15)&0x1f);
+		t0+= k[kb+9];
+		t0 = rotl1(t0,(P1>>>20)&0xf);
+		t0+= k[kb+10];
+		t0 = rotl31(t0,(P1>>>24)&0xf);
+		t0+= k[kb+11];
+
+		//Step 6 applies t1 to words 0 and 2, t0 to words 1 and 3
+		return ((long)t1 << 32) | (t0 & MASK);
+	}
+
+	/**
+	 * Reads four big-endian words from b at off into a at aOff.
+	 */
+	static void unpack( byte[] b, int off, int[] a, int aOff ){
+		for( int i=0; i < 4; i++, off += 4 ){
+			a[aOff+i] = (b[off] << 24) | ((b[off+1] & 0xFF) << 16)
+					| ((b[off+2] & 0xFF) << 8) | (b[off+3] & 0xFF);
+		}
+	}
+
+	/**
+	 * Writes four words from a at aOff into b at off, big-endian.
+	 */
+	static void pack( int[] a, int aOff, byte[] b, int off ){
+		for( int i=0; i < 4; i++, off += 4 ){
+			int w = a[aOff+i];
+			b[off]   = (byte)(w >>> 24);
+			b[off+1] = (byte)(w >>> 16);
+			b[off+2] = (byte)(w >>> 8);
+			b[off+3] = (byte) w;
+		}
 	}
 
 
@@ -353,6 +696,38 @@ public class Akelarre {
 		}
     }
 
+	/**
+	 * The upper half of a 128 bit value hi:lo rotated left. Together with
+	 * rotl128Lo this is rotl128 for a block held as two longs, and takes
+	 * the same few shifts for every amount.
+	 *
+	 * @param hi The most significant 64 bits
+	 * @param lo The least significant 64 bits
+	 * @param amount The amount to rotate by, 0 to 127.
+	 * @return The most significant 64 bits of the result
+	 */
+	public static long rotl128Hi(long hi, long lo, int amount){
+		if( (amount & 64) != 0 ){
+			long t = hi;
+			hi = lo;
+			lo = t;
+		}
+		amount &= 63;
+		return amount == 0 ? hi : (hi << amount) | (lo >>> (64-amount));
+	}
+
+	/**
+	 * The lower half of a 128 bit value hi:lo rotated left.
+	 *
+	 * @param hi The most significant 64 bits
+	 * @param lo The least significant 64 bits
+	 * @param amount The amount to rotate by, 0 to 127.
+	 * @return The least significant 64 bits of the result
+	 */
+	public static long rotl128Lo(long hi, long lo, int amount){
+		return rotl128Hi(lo, hi, amount);
+	}
+
 	/**
 	 * Function used for debugging purporses. It returns a string of 0's and 1's
 	 * from the input integer without truncating leadings zeros.
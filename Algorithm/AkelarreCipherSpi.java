@@ -0,0 +1,263 @@
+package Akelarre;
+
+import java.nio.ByteBuffer;
+import java.security.AlgorithmParameters;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.InvalidParameterException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.InvalidParameterSpecException;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.CipherSpi;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+
+import Akelarre.ModeEngine.Mode;
+
+/**
+ * The javax.crypto.Cipher implementation registered by AkelarreProvider.
+ * It schedules the key with the default number of rounds and hands the
+ * data to a ModeEngine.
+ *
+ * Keys are raw bytes, a multiple of four bytes long, read as big-endian
+ * words. The ByteBuffer update and doFinal work directly between the
+ * buffers, and partial blocks are kept in the engine's own buffer, so
+ * neither allocates per call.
+ *
+ * In CBC and CTR mode getParameters() returns the IV, made up here if
+ * none was given, as AkelarreParameters; in ECB mode it returns null.
+ */
+public class AkelarreCipherSpi extends CipherSpi {
+
+	/**
+	 * Supplies the AkelarreParameters, whether or not the provider is
+	 * installed.
+	 */
+	private static final Provider PROVIDER = new AkelarreProvider();
+
+	private Mode mode = Mode.ECB;
+	private boolean padding = true;
+	private ModeEngine engine;
+	private byte[] iv;
+
+	@Override
+	protected void engineSetMode(String mode) throws NoSuchAlgorithmException {
+		try{
+			this.mode = Mode.valueOf(mode.toUpperCase());
+		}catch( IllegalArgumentException e ){
+			throw new NoSuchAlgorithmException("Unsupported mode " + mode);
+		}
+	}
+
+	@Override
+	protected void engineSetPadding(String padding) throws NoSuchPaddingException {
+		if( padding.equalsIgnoreCase("NoPadding") ){
+			this.padding = false;
+		}else if( padding.equalsIgnoreCase("PKCS5Padding") || padding.equalsIgnoreCase("PKCS7Padding") ){
+			this.padding = true;
+		}else{
+			throw new NoSuchPaddingException("Unsupported padding " + padding);
+		}
+	}
+
+	@Override
+	protected int engineGetBlockSize(){
+		return Akelarre.BLOCK_SIZE;
+	}
+
+	@Override
+	protected int engineGetOutputSize(int inputLen){
+		return engine == null ? inputLen + Akelarre.BLOCK_SIZE : engine.getOutputSize(inputLen);
+	}
+
+	@Override
+	protected byte[] engineGetIV(){
+		return iv == null ? null : iv.clone();
+	}
+
+	@Override
+	protected AlgorithmParameters engineGetParameters(){
+		if( iv == null ){
+			return null;
+		}
+		try{
+			AlgorithmParameters params = AlgorithmParameters.getInstance("Akelarre", PROVIDER);
+			params.init(new IvParameterSpec(iv));
+			return params;
+		}catch( NoSuchAlgorithmException | InvalidParameterSpecException e ){
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	protected int engineGetKeySize(Key key) throws InvalidKeyException {
+		return toWords(key).length * 32;
+	}
+
+	@Override
+	protected void engineInit(int opmode,Key key,SecureRandom random) throws InvalidKeyException {
+		try{
+			engineInit(opmode, key, (AlgorithmParameterSpec)null, random);
+		}catch( InvalidAlgorithmParameterException e ){
+			throw new InvalidKeyException(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	protected void engineInit(int opmode,Key key,AlgorithmParameters params,SecureRandom random)
+			throws InvalidKeyException, InvalidAlgorithmParameterException {
+		AlgorithmParameterSpec spec = null;
+		if( params != null ){
+			try{
+				spec = params.getParameterSpec(IvParameterSpec.class);
+			}catch( InvalidParameterSpecException e ){
+				throw new InvalidAlgorithmParameterException(e.getMessage(), e);
+			}
+		}
+		engineInit(opmode, key, spec, random);
+	}
+
+	@Override
+	protected void engineInit(int opmode,Key key,AlgorithmParameterSpec params,SecureRandom random)
+			throws InvalidKeyException, InvalidAlgorithmParameterException {
+		boolean encrypting;
+		if( opmode == Cipher.ENCRYPT_MODE ){
+			encrypting = true;
+		}else if( opmode == Cipher.DECRYPT_MODE ){
+			encrypting = false;
+		}else{
+			throw new InvalidParameterException("Only encryption and decryption are supported.");
+		}
+
+		int[] words = toWords(key);
+
+		byte[] iv = null;
+		if( params instanceof IvParameterSpec ){
+			iv = ((IvParameterSpec)params).getIV();
+		}else if( params != null ){
+			throw new InvalidAlgorithmParameterException("Expected an IvParameterSpec.");
+		}
+		if( mode == Mode.ECB ){
+			iv = null;
+		}else if( iv == null ){
+			if( !encrypting ){
+				throw new InvalidAlgorithmParameterException("Mode " + mode + " requires an IV to decrypt.");
+			}
+			iv = new byte[Akelarre.BLOCK_SIZE];
+			(random != null ? random : new SecureRandom()).nextBytes(iv);
+		}else if( iv.length != Akelarre.BLOCK_SIZE ){
+			throw new InvalidAlgorithmParameterException("The IV must be 16 bytes.");
+		}
+
+		this.iv = iv;
+		Akelarre cipher = new Akelarre(Akelarre.DEFAULT_NUM_ROUNDS, words.length*4, words);
+		this.engine = new ModeEngine(cipher, mode, encrypting, iv, padding);
+	}
+
+	@Override
+	protected byte[] engineUpdate(byte[] input,int inputOffset,int inputLen){
+		byte[] out = new byte[engine.getUpdateOutputSize(inputLen)];
+		engine.update(input, inputOffset, inputLen, out, 0);
+		return out;
+	}
+
+	@Override
+	protected int engineUpdate(byte[] input,int inputOffset,int inputLen,byte[] output,int outputOffset)
+			throws ShortBufferException {
+		if( output.length - outputOffset < engine.getUpdateOutputSize(inputLen) ){
+			throw new ShortBufferException();
+		}
+		return engine.update(input, inputOffset, inputLen, output, outputOffset);
+	}
+
+	@Override
+	protected int engineUpdate(ByteBuffer input,ByteBuffer output) throws ShortBufferException {
+		if( output.remaining() < engine.getUpdateOutputSize(input.remaining()) ){
+			throw new ShortBufferException();
+		}
+		return engine.update(input, output);
+	}
+
+	@Override
+	protected byte[] engineDoFinal(byte[] input,int inputOffset,int inputLen)
+			throws IllegalBlockSizeException, BadPaddingException {
+		checkFinal(inputLen);
+		try{
+			return engine.doFinal(input == null ? new byte[0] : input, inputOffset, inputLen);
+		}catch( IllegalArgumentException e ){
+			engine.reset();
+			throw new BadPaddingException(e.getMessage());
+		}
+	}
+
+	@Override
+	protected int engineDoFinal(byte[] input,int inputOffset,int inputLen,byte[] output,int outputOffset)
+			throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+		checkFinal(inputLen);
+		if( output.length - outputOffset < engine.getOutputSize(inputLen) ){
+			throw new ShortBufferException();
+		}
+		try{
+			return engine.doFinal(input == null ? new byte[0] : input, inputOffset, inputLen, output, outputOffset);
+		}catch( IllegalArgumentException e ){
+			engine.reset();
+			throw new BadPaddingException(e.getMessage());
+		}
+	}
+
+	@Override
+	protected int engineDoFinal(ByteBuffer input,ByteBuffer output)
+			throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+		checkFinal(input.remaining());
+		if( output.remaining() < engine.getOutputSize(input.remaining()) ){
+			throw new ShortBufferException();
+		}
+		try{
+			return engine.doFinal(input, output);
+		}catch( IllegalArgumentException e ){
+			engine.reset();
+			throw new BadPaddingException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Throws if the input so far would not end on a block boundary where
+	 * it has to.
+	 */
+	private void checkFinal(int inputLen) throws IllegalBlockSizeException {
+		if( engine == null ){
+			throw new IllegalStateException("Cipher not initialized.");
+		}
+		if( mode == Mode.CTR || (padding && engine.isEncrypting()) ){
+			return;
+		}
+		int total = engine.getOutputSize(inputLen);
+		if( total % Akelarre.BLOCK_SIZE != 0 || (padding && total == 0) ){
+			engine.reset();
+			throw new IllegalBlockSizeException("Input length not a multiple of the block size.");
+		}
+	}
+
+	/**
+	 * @return The raw key as big-endian words.
+	 */
+	private static int[] toWords(Key key) throws InvalidKeyException {
+		byte[] b = key == null ? null : key.getEncoded();
+		if( b == null || b.length == 0 || b.length % 4 != 0 ){
+			throw new InvalidKeyException("Key must be a non-empty multiple of 4 bytes.");
+		}
+		int[] words = new int[b.length / 4];
+		for( int i=0; i < words.length; i++ ){
+			words[i] = (b[4*i] << 24) | ((b[4*i+1] & 0xFF) << 16) | ((b[4*i+2] & 0xFF) << 8) | (b[4*i+3] & 0xFF);
+		}
+		return words;
+	}
+}
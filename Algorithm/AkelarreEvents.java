@@ -0,0 +1,120 @@
+package Akelarre;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The Java Flight Recorder events the library emits. They show up in a
+ * recording under Akelarre once enabled, for example with
+ * -XX:StartFlightRecording:settings=profile or a .jfc file enabling
+ * Akelarre.BulkCrypt and Akelarre.KeySchedule.
+ *
+ * An event is created and begun before the work and committed after it.
+ * When the event is not enabled in the running recording, or there is no
+ * recording, shouldCommit() is false, the fields are never filled in and
+ * the JIT removes the event object, so the calls can stay in the bulk
+ * paths. Nothing is emitted per block.
+ */
+public final class AkelarreEvents {
+
+	private AkelarreEvents(){}
+
+	/**
+	 * A bulk encryption or decryption call: ModeEngine.update(),
+	 * ParallelModeEngine and Akelarre.encryptBlocks/decryptBlocks.
+	 */
+	@Name("Akelarre.BulkCrypt")
+	@Label("Bulk Crypt")
+	@Category("Akelarre")
+	@Description("A bulk encryption or decryption call")
+	@StackTrace(false)
+	public static final class BulkCrypt extends Event {
+		@Label("Bytes")
+		@DataAmount
+		public long bytes;
+
+		@Label("Mode")
+		@Description("ECB, CBC or CTR, or BLOCKS for raw blocks")
+		public String mode;
+
+		@Label("Engine")
+		public String engine;
+
+		@Label("Encrypt")
+		public boolean encrypt;
+
+		/**
+		 * Commits the event if the recording wants it.
+		 *
+		 * @param bytes	The bytes processed
+		 * @param mode	The mode, or BLOCKS
+		 * @param encrypt	Whether it ran with encryption subkeys
+		 */
+		public void end(long bytes,String mode,boolean encrypt){
+			if( shouldCommit() ){
+				this.bytes = bytes;
+				this.mode = mode;
+				this.encrypt = encrypt;
+				this.engine = BlockEngines.get().getClass().getSimpleName();
+				commit();
+			}
+		}
+	}
+
+	/**
+	 * One key run through a KeyScheduler.
+	 */
+	@Name("Akelarre.KeySchedule")
+	@Label("Key Schedule")
+	@Category("Akelarre")
+	@Description("A key run through the key scheduler")
+	@StackTrace(false)
+	public static final class KeySchedule extends Event {
+		@Label("Rounds")
+		public int rounds;
+
+		@Label("Key Size")
+		@DataAmount
+		public int keySize;
+
+		@Label("Scheduler")
+		public String scheduler;
+
+		/**
+		 * Commits the event if the recording wants it.
+		 *
+		 * @param scheduler	The scheduler that ran
+		 */
+		public void end(KeyScheduler scheduler){
+			if( shouldCommit() ){
+				rounds = scheduler.NUM_ROUNDS;
+				keySize = scheduler.KEY_SIZE;
+				this.scheduler = scheduler.getClass().getSimpleName();
+				commit();
+			}
+		}
+	}
+
+	/**
+	 * @return A begun bulk call event.
+	 */
+	public static BulkCrypt bulk(){
+		BulkCrypt e = new BulkCrypt();
+		e.begin();
+		return e;
+	}
+
+	/**
+	 * @return A begun key schedule event.
+	 */
+	public static KeySchedule schedule(){
+		KeySchedule e = new KeySchedule();
+		e.begin();
+		return e;
+	}
+}
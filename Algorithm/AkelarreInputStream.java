@@ -0,0 +1,152 @@
+package Akelarre;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that encrypts or decrypts the data read from another
+ * stream with a ModeEngine. The final block is processed, and padding
+ * added or removed, when the underlying stream reaches its end.
+ *
+ * Memory use is bounded by the buffer size no matter how much data passes
+ * through the stream.
+ */
+public class AkelarreInputStream extends FilterInputStream {
+
+	/**
+	 * The default buffer size. Large enough to amortize the calls into the
+	 * underlying stream, small enough to stay in cache.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64*1024;
+
+	/**
+	 * The engine that processes the data.
+	 */
+	private ModeEngine engine;
+
+	/**
+	 * Data read from the underlying stream.
+	 */
+	private byte[] ibuf;
+
+	/**
+	 * Output of the engine waiting to be read.
+	 */
+	private byte[] obuf;
+
+	/**
+	 * The read position and the end of the data in obuf.
+	 */
+	private int obufPos, obufLen;
+
+	/**
+	 * True once the engine has been finished.
+	 */
+	private boolean done;
+
+	/**
+	 * Used by read().
+	 */
+	private byte[] single = new byte[1];
+
+	/**
+	 * Constructs the stream with the default buffer size.
+	 *
+	 * @param in	The stream to read from
+	 * @param engine	The engine that processes the data
+	 */
+	public AkelarreInputStream(InputStream in,ModeEngine engine){
+		this(in,engine,DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Constructs the stream.
+	 *
+	 * @param in	The stream to read from
+	 * @param engine	The engine that processes the data
+	 * @param bufferSize	The number of bytes processed at a time
+	 */
+	public AkelarreInputStream(InputStream in,ModeEngine engine,int bufferSize){
+		super(in);
+		this.engine = engine;
+		this.ibuf = new byte[Math.max(bufferSize, Akelarre.BLOCK_SIZE)];
+		this.obuf = new byte[ibuf.length + 2*Akelarre.BLOCK_SIZE];
+	}
+
+	@Override
+	public int read() throws IOException {
+		return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b,int off,int len) throws IOException {
+		if( len == 0 ){
+			return 0;
+		}
+		while( obufPos == obufLen ){
+			if( done ){
+				return -1;
+			}
+			fill();
+		}
+		int n = Math.min(len, obufLen - obufPos);
+		System.arraycopy(obuf, obufPos, b, off, n);
+		obufPos += n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while( skipped < n ){
+			if( obufPos == obufLen ){
+				if( done ){
+					break;
+				}
+				fill();
+				continue;
+			}
+			int step = (int)Math.min(n - skipped, obufLen - obufPos);
+			obufPos += step;
+			skipped += step;
+		}
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return obufLen - obufPos;
+	}
+
+	@Override
+	public boolean markSupported(){
+		return false;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit){}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		throw new IOException("mark/reset not supported");
+	}
+
+	/**
+	 * Reads the next chunk of the underlying stream through the engine.
+	 */
+	private void fill() throws IOException {
+		int n = in.read(ibuf, 0, ibuf.length);
+		obufPos = 0;
+		try{
+			if( n == -1 ){
+				obufLen = engine.doFinal(obuf, 0);
+				done = true;
+			}else{
+				obufLen = engine.update(ibuf, 0, n, obuf, 0);
+			}
+		}catch( IllegalArgumentException e ){
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,295 @@
+package Akelarre;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts the blocks, bytes and key schedules the library handles and
+ * times key schedules and bulk calls. Counters are LongAdders, so threads
+ * updating them at once do not contend on one cache line.
+ *
+ * Recording is off unless the system property akelarre.metrics is "true".
+ * Every hook in the library is guarded by the constant ENABLED, which the
+ * JIT folds, so with metrics off the hooks are compiled away and the block
+ * functions run exactly as before. With metrics on, the shared instance is
+ * registered with the platform MBean server as Akelarre:type=Metrics.
+ *
+ * Sample Usage:
+ * java -Dakelarre.metrics=true ... then read Akelarre:type=Metrics in
+ * jconsole, or AkelarreMetrics.shared().getBlocksEncrypted() in code.
+ */
+public class AkelarreMetrics implements AkelarreMetricsMBean {
+
+	/**
+	 * Whether the library records metrics.
+	 */
+	public static final boolean ENABLED = Boolean.getBoolean("akelarre.metrics");
+
+	/**
+	 * The name the shared instance is registered under.
+	 */
+	public static final String OBJECT_NAME = "Akelarre:type=Metrics";
+
+	/**
+	 * The metrics the library records to.
+	 */
+	private static final AkelarreMetrics SHARED = new AkelarreMetrics();
+
+	static {
+		if( ENABLED ){
+			try{
+				SHARED.register(new ObjectName(OBJECT_NAME));
+			}catch( JMException e ){
+				// already registered by another class loader; the counters
+				// are still kept and readable through shared()
+			}
+		}
+	}
+
+	/**
+	 * A histogram of latencies in power of two buckets: bucket 0 holds
+	 * zero, bucket i latencies of at least 2^(i-1) and less than 2^i
+	 * nanoseconds. Recording is one LongAdder increment.
+	 */
+	public static class LatencyHistogram {
+		public static final int BUCKETS = 64;
+
+		private final LongAdder[] buckets = new LongAdder[BUCKETS];
+		private final LongAdder sum = new LongAdder();
+
+		public LatencyHistogram(){
+			for( int i=0;i<BUCKETS;i++ ){
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		/**
+		 * @param nanos	A latency, negative values counting as zero
+		 * @return The bucket it falls in.
+		 */
+		public static int bucket(long nanos){
+			return nanos <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(nanos);
+		}
+
+		/**
+		 * @param i	A bucket
+		 * @return The largest latency bucket i holds.
+		 */
+		public static long upperBound(int i){
+			return i >= 63 ? Long.MAX_VALUE : (1L << i) - 1;
+		}
+
+		public void record(long nanos){
+			buckets[bucket(nanos)].increment();
+			sum.add(Math.max(0, nanos));
+		}
+
+		/**
+		 * @return The count in each bucket.
+		 */
+		public long[] counts(){
+			long[] c = new long[BUCKETS];
+			for( int i=0;i<BUCKETS;i++ ){
+				c[i] = buckets[i].sum();
+			}
+			return c;
+		}
+
+		/**
+		 * @return The number of latencies recorded.
+		 */
+		public long count(){
+			long n = 0;
+			for( LongAdder b : buckets ){
+				n += b.sum();
+			}
+			return n;
+		}
+
+		/**
+		 * @return The mean latency, 0 when nothing is recorded.
+		 */
+		public long mean(){
+			long n = count();
+			return n == 0 ? 0 : sum.sum() / n;
+		}
+
+		/**
+		 * @param p	The fraction of latencies, 0 to 1
+		 * @return The upper bound of the bucket holding the p-th latency, 0
+		 * when nothing is recorded.
+		 */
+		public long percentile(double p){
+			if( p < 0 || p > 1 ){
+				throw new IllegalArgumentException("Percentile must be between 0 and 1.");
+			}
+			long[] c = counts();
+			long n = 0;
+			for( long x : c ){
+				n += x;
+			}
+			if( n == 0 ){
+				return 0;
+			}
+			long target = Math.max(1, (long)Math.ceil(p * n));
+			for( int i=0;i<BUCKETS;i++ ){
+				target -= c[i];
+				if( target <= 0 ){
+					return upperBound(i);
+				}
+			}
+			return upperBound(BUCKETS-1);
+		}
+
+		public void reset(){
+			for( LongAdder b : buckets ){
+				b.reset();
+			}
+			sum.reset();
+		}
+	}
+
+	private final LongAdder blocksEncrypted = new LongAdder();
+	private final LongAdder blocksDecrypted = new LongAdder();
+	private final LongAdder bytesProcessed = new LongAdder();
+	private final LongAdder keySchedules = new LongAdder();
+	private final LatencyHistogram keyScheduleLatency = new LatencyHistogram();
+	private final LatencyHistogram bulkLatency = new LatencyHistogram();
+
+	/**
+	 * @return The metrics the library records to.
+	 */
+	public static AkelarreMetrics shared(){
+		return SHARED;
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server.
+	 *
+	 * @param name	The name to register under
+	 * @throws JMException if the name is taken
+	 */
+	public void register(ObjectName name) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+	}
+
+	/**
+	 * Records one block given to a single block call, and its bytes.
+	 *
+	 * @param encrypt	Whether it ran with encryption subkeys
+	 */
+	public void block(boolean encrypt){
+		(encrypt ? blocksEncrypted : blocksDecrypted).increment();
+		bytesProcessed.add(Akelarre.BLOCK_SIZE);
+	}
+
+	/**
+	 * Records blocks run through the cipher inside a bulk call, whose bytes
+	 * are recorded with bulk().
+	 *
+	 * @param encrypt	Whether they ran with encryption subkeys
+	 * @param blocks	The number of blocks
+	 */
+	public void blocks(boolean encrypt,long blocks){
+		(encrypt ? blocksEncrypted : blocksDecrypted).add(blocks);
+	}
+
+	/**
+	 * Records a bulk call.
+	 *
+	 * @param bytes	The bytes given to it
+	 * @param nanos	How long it took
+	 */
+	public void bulk(long bytes,long nanos){
+		bytesProcessed.add(bytes);
+		bulkLatency.record(nanos);
+	}
+
+	/**
+	 * Records keys scheduled without timing them, as the incremental and
+	 * batch schedulers do.
+	 *
+	 * @param keys	The number of keys
+	 */
+	public void scheduled(long keys){
+		keySchedules.add(keys);
+	}
+
+	/**
+	 * Records one key schedule.
+	 *
+	 * @param nanos	How long it took
+	 */
+	public void schedule(long nanos){
+		keySchedules.increment();
+		keyScheduleLatency.record(nanos);
+	}
+
+	public boolean isEnabled(){
+		return ENABLED;
+	}
+
+	public long getBlocksEncrypted(){
+		return blocksEncrypted.sum();
+	}
+
+	public long getBlocksDecrypted(){
+		return blocksDecrypted.sum();
+	}
+
+	public long getBytesProcessed(){
+		return bytesProcessed.sum();
+	}
+
+	public long getKeySchedules(){
+		return keySchedules.sum();
+	}
+
+	public long getKeyScheduleSamples(){
+		return keyScheduleLatency.count();
+	}
+
+	public long getKeyScheduleMeanNanos(){
+		return keyScheduleLatency.mean();
+	}
+
+	public long getKeyScheduleP99Nanos(){
+		return keyScheduleLatency.percentile(0.99);
+	}
+
+	public long[] getKeyScheduleHistogram(){
+		return keyScheduleLatency.counts();
+	}
+
+	public long getBulkCalls(){
+		return bulkLatency.count();
+	}
+
+	public long getBulkMeanNanos(){
+		return bulkLatency.mean();
+	}
+
+	public long getBulkP50Nanos(){
+		return bulkLatency.percentile(0.5);
+	}
+
+	public long getBulkP99Nanos(){
+		return bulkLatency.percentile(0.99);
+	}
+
+	public long[] getBulkHistogram(){
+		return bulkLatency.counts();
+	}
+
+	public void reset(){
+		blocksEncrypted.reset();
+		blocksDecrypted.reset();
+		bytesProcessed.reset();
+		keySchedules.reset();
+		keyScheduleLatency.reset();
+		bulkLatency.reset();
+	}
+}
@@ -0,0 +1,74 @@
+package Akelarre;
+
+/**
+ * The JMX view of AkelarreMetrics, registered as Akelarre:type=Metrics.
+ * Latencies are in nanoseconds; percentiles are the upper bound of the
+ * power of two bucket they fall in.
+ */
+public interface AkelarreMetricsMBean {
+
+	/**
+	 * @return Whether the library records metrics, set with the system
+	 * property akelarre.metrics=true.
+	 */
+	boolean isEnabled();
+
+	/**
+	 * @return The number of blocks run through the cipher with encryption
+	 * subkeys.
+	 */
+	long getBlocksEncrypted();
+
+	/**
+	 * @return The number of blocks run through the cipher with decryption
+	 * subkeys.
+	 */
+	long getBlocksDecrypted();
+
+	/**
+	 * @return The number of bytes handed to the block and bulk calls.
+	 */
+	long getBytesProcessed();
+
+	/**
+	 * @return The number of keys scheduled.
+	 */
+	long getKeySchedules();
+
+	/**
+	 * @return The number of key schedules timed.
+	 */
+	long getKeyScheduleSamples();
+
+	long getKeyScheduleMeanNanos();
+
+	long getKeyScheduleP99Nanos();
+
+	/**
+	 * @return The key schedule latency histogram, bucket i counting
+	 * latencies of at least 2^(i-1) and less than 2^i nanoseconds.
+	 */
+	long[] getKeyScheduleHistogram();
+
+	/**
+	 * @return The number of bulk calls.
+	 */
+	long getBulkCalls();
+
+	long getBulkMeanNanos();
+
+	long getBulkP50Nanos();
+
+	long getBulkP99Nanos();
+
+	/**
+	 * @return The bulk call latency histogram, laid out as
+	 * getKeyScheduleHistogram().
+	 */
+	long[] getBulkHistogram();
+
+	/**
+	 * Zeroes every counter and histogram.
+	 */
+	void reset();
+}
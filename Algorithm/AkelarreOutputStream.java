@@ -0,0 +1,116 @@
+package Akelarre;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream that encrypts or decrypts everything written to it with
+ * a ModeEngine before passing it on. The final, padded block is written
+ * when the stream is closed.
+ *
+ * Memory use is bounded by the buffer size no matter how much data passes
+ * through the stream.
+ */
+public class AkelarreOutputStream extends FilterOutputStream {
+
+	/**
+	 * The default buffer size. Large enough to amortize the calls into the
+	 * underlying stream, small enough to stay in cache.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64*1024;
+
+	/**
+	 * The engine that processes the data.
+	 */
+	private ModeEngine engine;
+
+	/**
+	 * Output of the engine waiting to be written.
+	 */
+	private byte[] obuf;
+
+	/**
+	 * Used by write(int).
+	 */
+	private byte[] single = new byte[1];
+
+	/**
+	 * True once the stream has been closed.
+	 */
+	private boolean closed;
+
+	/**
+	 * Constructs the stream with the default buffer size.
+	 *
+	 * @param out	The stream to write to
+	 * @param engine	The engine that processes the data
+	 */
+	public AkelarreOutputStream(OutputStream out,ModeEngine engine){
+		this(out,engine,DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Constructs the stream.
+	 *
+	 * @param out	The stream to write to
+	 * @param engine	The engine that processes the data
+	 * @param bufferSize	The number of bytes processed at a time
+	 */
+	public AkelarreOutputStream(OutputStream out,ModeEngine engine,int bufferSize){
+		super(out);
+		this.engine = engine;
+		this.obuf = new byte[Math.max(bufferSize, 2*Akelarre.BLOCK_SIZE)];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		single[0] = (byte)b;
+		write(single, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b,int off,int len) throws IOException {
+		if( closed ){
+			throw new IOException("Stream closed");
+		}
+		// leave room in obuf for a block buffered by the engine
+		int max = obuf.length - Akelarre.BLOCK_SIZE;
+		while( len > 0 ){
+			int piece = Math.min(len, max);
+			int n = engine.update(b, off, piece, obuf, 0);
+			out.write(obuf, 0, n);
+			off += piece;
+			len -= piece;
+		}
+	}
+
+	/**
+	 * Flushes the underlying stream. A partial block stays buffered until
+	 * more data arrives or the stream is closed.
+	 */
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * Writes the final block and closes the underlying stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		if( closed ){
+			return;
+		}
+		closed = true;
+		try{
+			int n = engine.doFinal(obuf, 0);
+			out.write(obuf, 0, n);
+			out.flush();
+		}catch( IllegalArgumentException e ){
+			throw new IOException(e.getMessage(), e);
+		}finally{
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package Akelarre;
+
+import java.io.IOException;
+import java.security.AlgorithmParametersSpi;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.InvalidParameterSpecException;
+import java.util.Arrays;
+
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * The AlgorithmParameters registered by AkelarreProvider: the IV of the
+ * CBC and CTR modes. AkelarreCipherSpi hands them out so the IV of an
+ * encrypting Cipher can be given to a decrypting one.
+ *
+ * The encoded form is the IV as a DER OCTET STRING, the form the JDK uses
+ * for the IVs of its own block ciphers.
+ */
+public class AkelarreParameters extends AlgorithmParametersSpi {
+
+	/**
+	 * The DER tag of an OCTET STRING.
+	 */
+	private static final byte OCTET_STRING = 0x04;
+
+	private byte[] iv;
+
+	@Override
+	protected void engineInit(AlgorithmParameterSpec paramSpec) throws InvalidParameterSpecException {
+		if( !(paramSpec instanceof IvParameterSpec) ){
+			throw new InvalidParameterSpecException("Expected an IvParameterSpec.");
+		}
+		byte[] iv = ((IvParameterSpec)paramSpec).getIV();
+		if( iv.length != Akelarre.BLOCK_SIZE ){
+			throw new InvalidParameterSpecException("The IV must be 16 bytes.");
+		}
+		this.iv = iv;
+	}
+
+	@Override
+	protected void engineInit(byte[] params) throws IOException {
+		if( params.length != Akelarre.BLOCK_SIZE + 2 || params[0] != OCTET_STRING || params[1] != Akelarre.BLOCK_SIZE ){
+			throw new IOException("Not an encoded 16 byte IV.");
+		}
+		iv = Arrays.copyOfRange(params, 2, params.length);
+	}
+
+	@Override
+	protected void engineInit(byte[] params,String format) throws IOException {
+		if( format != null && !format.equalsIgnoreCase("ASN.1") ){
+			throw new IOException("Unsupported format " + format);
+		}
+		engineInit(params);
+	}
+
+	@Override
+	protected <T extends AlgorithmParameterSpec> T engineGetParameterSpec(Class<T> paramSpec)
+			throws InvalidParameterSpecException {
+		if( !paramSpec.isAssignableFrom(IvParameterSpec.class) ){
+			throw new InvalidParameterSpecException("Only IvParameterSpec is supported.");
+		}
+		return paramSpec.cast(new IvParameterSpec(iv));
+	}
+
+	@Override
+	protected byte[] engineGetEncoded(){
+		byte[] out = new byte[iv.length + 2];
+		out[0] = OCTET_STRING;
+		out[1] = (byte)iv.length;
+		System.arraycopy(iv, 0, out, 2, iv.length);
+		return out;
+	}
+
+	@Override
+	protected byte[] engineGetEncoded(String format) throws IOException {
+		if( format != null && !format.equalsIgnoreCase("ASN.1") ){
+			throw new IOException("Unsupported format " + format);
+		}
+		return engineGetEncoded();
+	}
+
+	@Override
+	protected String engineToString(){
+		StringBuilder sb = new StringBuilder("Akelarre IV: ");
+		for( byte b : iv ){
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+}
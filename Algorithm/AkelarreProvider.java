@@ -0,0 +1,32 @@
+package Akelarre;
+
+import java.security.Provider;
+
+/**
+ * A JCA provider that makes Akelarre available through javax.crypto.Cipher.
+ *
+ * Sample Usage:
+ * Cipher c = Cipher.getInstance("Akelarre/CBC/PKCS5Padding", new AkelarreProvider());
+ * c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "Akelarre"), new IvParameterSpec(iv));
+ */
+public final class AkelarreProvider extends Provider {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The name of the provider.
+	 */
+	public static final String NAME = "Akelarre";
+
+	/**
+	 * Registers the cipher, the modes and paddings it supports and the
+	 * parameters that carry its IV.
+	 */
+	public AkelarreProvider(){
+		super(NAME, "1.0", "Akelarre block cipher (ECB, CBC and CTR modes)");
+		put("Cipher.Akelarre", AkelarreCipherSpi.class.getName());
+		put("Cipher.Akelarre SupportedModes", "ECB|CBC|CTR");
+		put("Cipher.Akelarre SupportedPaddings", "NOPADDING|PKCS5PADDING|PKCS7PADDING");
+		put("Cipher.Akelarre SupportedKeyFormats", "RAW");
+		put("AlgorithmParameters.Akelarre", AkelarreParameters.class.getName());
+	}
+}
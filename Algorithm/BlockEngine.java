@@ -0,0 +1,27 @@
+package Akelarre;
+
+/**
+ * Runs the Akelarre round function over a run of independent blocks. The
+ * bulk paths hand their blocks to an engine in batches so that the
+ * implementation is free to process several of them at once.
+ */
+public interface BlockEngine {
+
+	/**
+	 * Encrypts blocks consecutive blocks of four words in w, starting at
+	 * off, in place.
+	 *
+	 * @param w	The words of the blocks
+	 * @param off	Offset of the first block in w
+	 * @param blocks	The number of blocks
+	 * @param k	The subkeys, 13*rounds+9 of them
+	 * @param rounds	The number of rounds to run
+	 * @param rotate	Whether the 128 bit rotations take place
+	 */
+	public void crypt(int[] w,int off,int blocks,int[] k,int rounds,boolean rotate);
+
+	/**
+	 * @return A short name for the engine.
+	 */
+	public String getName();
+}
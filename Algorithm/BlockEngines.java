@@ -0,0 +1,67 @@
+package Akelarre;
+
+/**
+ * Chooses the block engine used by the bulk paths.
+ *
+ * The engine can be forced with the system property akelarre.engine set to
+ * "scalar", "interleaved" or "vector". The vector engine is built apart
+ * from this package, from Vector/, and needs the jdk.incubator.vector
+ * module; without either the interleaved engine is used.
+ */
+public final class BlockEngines {
+
+	/**
+	 * The number of blocks the bulk paths hand to an engine at a time.
+	 */
+	public static final int BATCH_BLOCKS = 64;
+
+	/**
+	 * The engine used by the bulk paths.
+	 */
+	private static final BlockEngine DEFAULT = select(System.getProperty("akelarre.engine"));
+
+	private BlockEngines(){}
+
+	/**
+	 * @return The engine used by the bulk paths.
+	 */
+	public static BlockEngine get(){
+		return DEFAULT;
+	}
+
+	/**
+	 * Looks up an engine by name.
+	 *
+	 * @param name	"scalar", "interleaved" or "vector", null for the default
+	 * @return The engine
+	 */
+	public static BlockEngine select(String name){
+		if( "scalar".equals(name) ){
+			return new ScalarEngine();
+		}
+		if( "vector".equals(name) ){
+			BlockEngine vector = vector();
+			if( vector != null ){
+				return vector;
+			}
+		}
+		return new InterleavedEngine();
+	}
+
+	/**
+	 * Loads the vector engine by name, so that nothing links against the
+	 * incubator module unless it is asked for.
+	 *
+	 * @return The vector engine, or null if the Vector API is not available
+	 */
+	public static BlockEngine vector(){
+		try{
+			Class<?> c = Class.forName("Akelarre.VectorEngine");
+			return (BlockEngine)c.getDeclaredConstructor().newInstance();
+		}catch( ReflectiveOperationException e ){
+			return null;
+		}catch( LinkageError e ){
+			return null;
+		}
+	}
+}
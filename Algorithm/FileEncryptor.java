@@ -0,0 +1,128 @@
+package Akelarre;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import Akelarre.ModeEngine.Mode;
+
+/**
+ * Encrypts and decrypts files through memory-mapped FileChannel regions.
+ * The file is walked one window at a time, so the heap use stays the same
+ * for files of any size, and the engine reads and writes the mapped pages
+ * directly without copying them through byte arrays.
+ */
+public class FileEncryptor {
+
+	/**
+	 * The default size of a mapped window.
+	 */
+	public static final int DEFAULT_WINDOW_SIZE = 64*1024*1024;
+
+	/**
+	 * The cipher to run.
+	 */
+	private Akelarre cipher;
+
+	/**
+	 * The mode to run the cipher in.
+	 */
+	private Mode mode;
+
+	/**
+	 * The initial vector, or null for ECB.
+	 */
+	private byte[] iv;
+
+	/**
+	 * The number of bytes mapped at a time.
+	 */
+	private int windowSize;
+
+	/**
+	 * Constructs a file encryptor with the default window size.
+	 *
+	 * @param cipher	The cipher to run
+	 * @param mode	The mode to run it in
+	 * @param iv	The 16 byte initial vector, may be null for ECB
+	 */
+	public FileEncryptor(Akelarre cipher,Mode mode,byte[] iv){
+		this(cipher,mode,iv,DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Constructs a file encryptor.
+	 *
+	 * @param cipher	The cipher to run
+	 * @param mode	The mode to run it in
+	 * @param iv	The 16 byte initial vector, may be null for ECB
+	 * @param windowSize	The number of bytes mapped at a time
+	 */
+	public FileEncryptor(Akelarre cipher,Mode mode,byte[] iv,int windowSize){
+		this.cipher = cipher;
+		this.mode = mode;
+		this.iv = iv;
+		this.windowSize = Math.max(Akelarre.BLOCK_SIZE, windowSize / Akelarre.BLOCK_SIZE * Akelarre.BLOCK_SIZE);
+	}
+
+	/**
+	 * Encrypts the file in into the file out.
+	 *
+	 * @return	The size of the encrypted file
+	 */
+	public long encrypt(Path in,Path out) throws IOException {
+		return run(new ModeEngine(cipher,mode,true,iv),in,out);
+	}
+
+	/**
+	 * Decrypts the file in into the file out.
+	 *
+	 * @return	The size of the decrypted file
+	 */
+	public long decrypt(Path in,Path out) throws IOException {
+		return run(new ModeEngine(cipher,mode,false,iv),in,out);
+	}
+
+	/**
+	 * Runs the engine over the file in, one mapped window at a time.
+	 */
+	private long run(ModeEngine engine,Path in,Path out) throws IOException {
+		try( FileChannel src = FileChannel.open(in, StandardOpenOption.READ);
+				FileChannel dst = FileChannel.open(out, StandardOpenOption.CREATE,
+						StandardOpenOption.READ, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING) ){
+			long size = src.size();
+			long inPos = 0, outPos = 0;
+			while( inPos < size ){
+				int n = (int)Math.min(windowSize, size - inPos);
+				MappedByteBuffer inMap = src.map(FileChannel.MapMode.READ_ONLY, inPos, n);
+				int outLen = engine.getUpdateOutputSize(n);
+				if( outLen > 0 ){
+					MappedByteBuffer outMap = dst.map(FileChannel.MapMode.READ_WRITE, outPos, outLen);
+					engine.update(inMap, outMap);
+				}else{
+					engine.update(inMap, ByteBuffer.allocate(0));
+				}
+				inPos += n;
+				outPos += outLen;
+			}
+
+			byte[] last = new byte[2*Akelarre.BLOCK_SIZE];
+			int n;
+			try{
+				n = engine.doFinal(last, 0);
+			}catch( IllegalArgumentException e ){
+				throw new IOException(e.getMessage(), e);
+			}
+			ByteBuffer tail = ByteBuffer.wrap(last, 0, n);
+			while( tail.hasRemaining() ){
+				outPos += dst.write(tail, outPos);
+			}
+			dst.truncate(outPos);
+			return outPos;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package Akelarre;
+
+import java.util.Arrays;
+
+/**
+ * A key scheduler for walking through many keys in a row, as a brute force
+ * search does. Every subkey depends on a single 16 bit subblock of the key,
+ * so when the next key differs from the last only in its low subblocks,
+ * only the subkeys derived from those subblocks are recomputed. Stepping a
+ * counter key by one usually changes just the last subblock.
+ *
+ * The subkeys live in one array that is updated in place on every call, and
+ * only encryption subkeys are produced. An instance is not thread safe.
+ *
+ * Sample Usage:
+ * IncrementalKeyScheduler scheduler = new IncrementalKeyScheduler(1, 4);
+ * for( ... ){
+ *     scheduler.schedule(key);
+ *     scheduler.encryptBlock(pt, 0, ct, 0);
+ * }
+ */
+public class IncrementalKeyScheduler {
+
+	private final KeyScheduler scheduler;
+	private final int rounds;
+
+	/**
+	 * The subkeys of the last key scheduled.
+	 */
+	private final int[] K;
+
+	/**
+	 * The subblocks of the last key scheduled, -1 before the first.
+	 */
+	private final int[] s;
+
+	/**
+	 * Constructs an incremental scheduler.
+	 *
+	 * @param num_rounds	Number of rounds
+	 * @param key_size	Key size in bytes
+	 */
+	public IncrementalKeyScheduler(int num_rounds,int key_size){
+		scheduler = new KeyScheduler(num_rounds,key_size);
+		rounds = num_rounds;
+		K = new int[13*num_rounds+9];
+		s = new int[key_size/4*2];
+		Arrays.fill(s, -1);
+	}
+
+	/**
+	 * Schedules a key, recomputing only the subkeys whose subblock changed
+	 * since the last call.
+	 *
+	 * @param key	The key
+	 * @return The encryption subkeys. This is the scheduler's own array and
+	 * is overwritten by the next call.
+	 */
+	public int[] schedule(int[] key){
+		if( key.length != scheduler.KEY_SIZE/4 ){
+			throw new IllegalArgumentException("Key provided of improper length.");
+		}
+		for( int i=0;i<s.length;i++ ){
+			int h = KeyScheduler.halfword(key,i);
+			if( h != s[i] ){
+				s[i] = h;
+				scheduler.scheduleSubblock(K,i,s.length,h);
+			}
+		}
+		if( AkelarreMetrics.ENABLED ){
+			AkelarreMetrics.shared().scheduled(1);
+		}
+		return K;
+	}
+
+	/**
+	 * Encrypts a single block with the subkeys of the last key scheduled,
+	 * without rotation.
+	 *
+	 * @param in	The plaintext words
+	 * @param inOff	Offset of the block in in
+	 * @param out	The array receiving the cipher text
+	 * @param outOff	Offset of the block in out
+	 */
+	public void encryptBlock(int[] in,int inOff,int[] out,int outOff){
+		System.arraycopy(in, inOff, out, outOff, 4);
+		Akelarre.crypt(out, outOff, K, rounds, false);
+	}
+}
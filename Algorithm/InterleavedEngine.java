@@ -0,0 +1,113 @@
+package Akelarre;
+
+import static Akelarre.Akelarre.LAST_7_BITS;
+import static Akelarre.Akelarre.MASK;
+import static Akelarre.Akelarre.rotl1;
+import static Akelarre.Akelarre.rotl128Hi;
+import static Akelarre.Akelarre.rotl128Lo;
+import static Akelarre.Akelarre.rotl31;
+
+/**
+ * A block engine that runs four independent blocks through the same round
+ * loop. A single block is one long chain of dependent rotations and
+ * additions, so most of the execution ports of the CPU sit idle waiting
+ * for the previous step. Interleaving four chains lets them overlap.
+ *
+ * The 128 bit rotation of a round is by an amount taken from the subkeys,
+ * the same for all four blocks, so it is interleaved too: each block is
+ * rotated as two longs with rotl128Hi and rotl128Lo.
+ */
+public class InterleavedEngine implements BlockEngine {
+
+	@Override
+	public String getName(){
+		return "interleaved";
+	}
+
+	@Override
+	public void crypt(int[] w,int off,int blocks,int[] k,int rounds,boolean rotate){
+		int kj;
+		for( ; blocks >= 4; blocks -= 4, off += 16 ){
+			//Initialization
+			int a0 = w[off] + k[0], a1 = w[off+1] ^ k[1], a2 = w[off+2] ^ k[2], a3 = w[off+3] + k[3];
+			int b0 = w[off+4] + k[0], b1 = w[off+5] ^ k[1], b2 = w[off+6] ^ k[2], b3 = w[off+7] + k[3];
+			int c0 = w[off+8] + k[0], c1 = w[off+9] ^ k[1], c2 = w[off+10] ^ k[2], c3 = w[off+11] + k[3];
+			int d0 = w[off+12] + k[0], d1 = w[off+13] ^ k[1], d2 = w[off+14] ^ k[2], d3 = w[off+15] + k[3];
+
+			for( int r=0, kb=5; ; r++, kb += 13 ){
+				//Step 1,2,3, and of the Output Transformation when r == rounds
+				if( rotate ){
+					int n = k[kb-1] & LAST_7_BITS;
+					long ha = ((long)a0 << 32) | (a1 & MASK), la = ((long)a2 << 32) | (a3 & MASK);
+					long hb = ((long)b0 << 32) | (b1 & MASK), lb = ((long)b2 << 32) | (b3 & MASK);
+					long hc = ((long)c0 << 32) | (c1 & MASK), lc = ((long)c2 << 32) | (c3 & MASK);
+					long hd = ((long)d0 << 32) | (d1 & MASK), ld = ((long)d2 << 32) | (d3 & MASK);
+					long h;
+					h = rotl128Hi(ha, la, n); la = rotl128Lo(ha, la, n); ha = h;
+					h = rotl128Hi(hb, lb, n); lb = rotl128Lo(hb, lb, n); hb = h;
+					h = rotl128Hi(hc, lc, n); lc = rotl128Lo(hc, lc, n); hc = h;
+					h = rotl128Hi(hd, ld, n); ld = rotl128Lo(hd, ld, n); hd = h;
+					a0 = (int)(ha >>> 32); a1 = (int)ha; a2 = (int)(la >>> 32); a3 = (int)la;
+					b0 = (int)(hb >>> 32); b1 = (int)hb; b2 = (int)(lb >>> 32); b3 = (int)lb;
+					c0 = (int)(hc >>> 32); c1 = (int)hc; c2 = (int)(lc >>> 32); c3 = (int)lc;
+					d0 = (int)(hd >>> 32); d1 = (int)hd; d2 = (int)(ld >>> 32); d3 = (int)ld;
+				}
+				if( r == rounds ){
+					break;
+				}
+
+				//Step 4
+				int pa = a0 ^ a2, qa = a1 ^ a3;
+				int pb = b0 ^ b2, qb = b1 ^ b3;
+				int pc = c0 ^ c2, qc = c1 ^ c3;
+				int pd = d0 ^ d2, qd = d1 ^ d3;
+
+				int ta = rotl31(pa,qa&0x1f), tb = rotl31(pb,qb&0x1f), tc = rotl31(pc,qc&0x1f), td = rotl31(pd,qd&0x1f);
+				kj = k[kb+0];
+				ta = rotl1(ta+kj,(pa>>>5)&0x1f); tb = rotl1(tb+kj,(pb>>>5)&0x1f); tc = rotl1(tc+kj,(pc>>>5)&0x1f); td = rotl1(td+kj,(pd>>>5)&0x1f);
+				kj = k[kb+1];
+				ta = rotl31(ta+kj,(pa>>>10)&0x1f); tb = rotl31(tb+kj,(pb>>>10)&0x1f); tc = rotl31(tc+kj,(pc>>>10)&0x1f); td = rotl31(td+kj,(pd>>>10)&0x1f);
+				kj = k[kb+2];
+				ta = rotl1(ta+kj,(pa>>>15)&0x1f); tb = rotl1(tb+kj,(pb>>>15)&0x1f); tc = rotl1(tc+kj,(pc>>>15)&0x1f); td = rotl1(td+kj,(pd>>>15)&0x1f);
+				kj = k[kb+3];
+				ta = rotl31(ta+kj,(pa>>>20)&0xf); tb = rotl31(tb+kj,(pb>>>20)&0xf); tc = rotl31(tc+kj,(pc>>>20)&0xf); td = rotl31(td+kj,(pd>>>20)&0xf);
+				kj = k[kb+4];
+				ta = rotl1(ta+kj,(pa>>>24)&0xf); tb = rotl1(tb+kj,(pb>>>24)&0xf); tc = rotl1(tc+kj,(pc>>>24)&0xf); td = rotl1(td+kj,(pd>>>24)&0xf);
+				kj = k[kb+5];
+				ta += kj; tb += kj; tc += kj; td += kj;
+
+				int ua = rotl1(ta,pa&0x1f), ub = rotl1(tb,pb&0x1f), uc = rotl1(tc,pc&0x1f), ud = rotl1(td,pd&0x1f);
+				kj = k[kb+6];
+				ua = rotl31(ua+kj,(pa>>>5)&0x1f); ub = rotl31(ub+kj,(pb>>>5)&0x1f); uc = rotl31(uc+kj,(pc>>>5)&0x1f); ud = rotl31(ud+kj,(pd>>>5)&0x1f);
+				kj = k[kb+7];
+				ua = rotl1(ua+kj,(pa>>>10)&0x1f); ub = rotl1(ub+kj,(pb>>>10)&0x1f); uc = rotl1(uc+kj,(pc>>>10)&0x1f); ud = rotl1(ud+kj,(pd>>>10)&0x1f);
+				kj = k[kb+8];
+				ua = rotl31(ua+kj,(pa>>>15)&0x1f); ub = rotl31(ub+kj,(pb>>>15)&0x1f); uc = rotl31(uc+kj,(pc>>>15)&0x1f); ud = rotl31(ud+kj,(pd>>>15)&0x1f);
+				kj = k[kb+9];
+				ua = rotl1(ua+kj,(pa>>>20)&0xf); ub = rotl1(ub+kj,(pb>>>20)&0xf); uc = rotl1(uc+kj,(pc>>>20)&0xf); ud = rotl1(ud+kj,(pd>>>20)&0xf);
+				kj = k[kb+10];
+				ua = rotl31(ua+kj,(pa>>>24)&0xf); ub = rotl31(ub+kj,(pb>>>24)&0xf); uc = rotl31(uc+kj,(pc>>>24)&0xf); ud = rotl31(ud+kj,(pd>>>24)&0xf);
+				kj = k[kb+11];
+				ua += kj; ub += kj; uc += kj; ud += kj;
+
+				//Step 6
+				a0 ^= ta; a2 ^= ta; a1 ^= ua; a3 ^= ua;
+				b0 ^= tb; b2 ^= tb; b1 ^= ub; b3 ^= ub;
+				c0 ^= tc; c2 ^= tc; c1 ^= uc; c3 ^= uc;
+				d0 ^= td; d2 ^= td; d1 ^= ud; d3 ^= ud;
+			}
+
+			//Output Transformation
+			int o = 13*rounds;
+			int k5 = k[o+5], k6 = k[o+6], k7 = k[o+7], k8 = k[o+8];
+			w[off] = a0 + k5; w[off+1] = a1 ^ k6; w[off+2] = a2 ^ k7; w[off+3] = a3 + k8;
+			w[off+4] = b0 + k5; w[off+5] = b1 ^ k6; w[off+6] = b2 ^ k7; w[off+7] = b3 + k8;
+			w[off+8] = c0 + k5; w[off+9] = c1 ^ k6; w[off+10] = c2 ^ k7; w[off+11] = c3 + k8;
+			w[off+12] = d0 + k5; w[off+13] = d1 ^ k6; w[off+14] = d2 ^ k7; w[off+15] = d3 + k8;
+		}
+
+		for( ; blocks > 0; blocks--, off += 4 ){
+			Akelarre.crypt(w, off, k, rounds, rotate);
+		}
+	}
+}
@@ -0,0 +1,348 @@
+package Akelarre;
+
+import java.util.Arrays;
+
+import static Akelarre.Akelarre.rotl1;
+import static Akelarre.Akelarre.rotl31;
+
+/**
+ * Schedules many keys at once and encrypts a block under all of them in
+ * one pass, for key searches that try thousands of keys on the same
+ * plaintext.
+ *
+ * Subkeys are stored struct-of-arrays: subkey j of key i is at
+ * K[j*capacity+i], so every step of the round function is one loop over
+ * contiguous arrays with no dependence between keys. That keeps the
+ * pipeline full, and a run of keys is a plain vector load. The cipher state
+ * and the output use the same layout, word w of key i at w*size()+i.
+ *
+ * The JIT does not vectorize the data dependent rotations by itself, so
+ * with the vector engine (akelarre.engine=vector) the rounds run through
+ * the Vector API, one vector of keys at a time.
+ *
+ * Sample Usage:
+ * KeyBatch batch = new KeyBatch(1, 4, 1024);
+ * batch.schedule(keys, 0, keys.length);
+ * int i = batch.firstMatch(plaintext, ciphertext);
+ */
+public class KeyBatch {
+
+	/**
+	 * Whether the 128 bit rotations take place.
+	 */
+	public boolean doRotate = false;
+
+	/**
+	 * Steps 4 to 6 of a round over a run of keys, for engines that can do
+	 * better than one key at a time.
+	 */
+	interface Rounds {
+		/**
+		 * Runs the round for keys 0 up to some i &lt;= n.
+		 *
+		 * @param a0	Word 0 of the state of each key
+		 * @param a1	Word 1 of the state of each key
+		 * @param a2	Word 2 of the state of each key
+		 * @param a3	Word 3 of the state of each key
+		 * @param K	The subkeys
+		 * @param kb	Index in K of the first subkey of the round, key 0
+		 * @param c	The distance between subkeys of a key
+		 * @param n	The number of keys
+		 * @return The number of keys done, i
+		 */
+		int round(int[] a0,int[] a1,int[] a2,int[] a3,int[] K,int kb,int c,int n);
+	}
+
+	private final KeyScheduler scheduler;
+
+	/**
+	 * Runs the rounds when the engine can, else null.
+	 */
+	private final Rounds vector;
+	private final int rounds;
+	private final int capacity;
+	private final int numSubkeys;
+
+	/**
+	 * The number of keys scheduled.
+	 */
+	private int size;
+
+	/**
+	 * The subkeys, subkey j of key i at K[j*capacity+i].
+	 */
+	private final int[] K;
+
+	/**
+	 * Scratch for scheduling one key.
+	 */
+	private final int[] row;
+
+	/**
+	 * The state, one array per word.
+	 */
+	private final int[] a0, a1, a2, a3;
+
+	/**
+	 * Constructs an empty batch.
+	 *
+	 * @param num_rounds	Number of rounds
+	 * @param key_size	Key size in bytes
+	 * @param capacity	The most keys the batch holds
+	 */
+	public KeyBatch(int num_rounds,int key_size,int capacity){
+		this(num_rounds,key_size,capacity,BlockEngines.get());
+	}
+
+	/**
+	 * Constructs an empty batch that runs its rounds with the given engine
+	 * where the engine supports it.
+	 *
+	 * @param num_rounds	Number of rounds
+	 * @param key_size	Key size in bytes
+	 * @param capacity	The most keys the batch holds
+	 * @param engine	The engine
+	 */
+	public KeyBatch(int num_rounds,int key_size,int capacity,BlockEngine engine){
+		if( capacity < 1 ){
+			throw new IllegalArgumentException("Capacity must be positive.");
+		}
+		scheduler = new KeyScheduler(num_rounds,key_size);
+		rounds = num_rounds;
+		numSubkeys = 13*num_rounds+9;
+		this.capacity = capacity;
+		K = new int[numSubkeys*capacity];
+		row = new int[numSubkeys];
+		a0 = new int[capacity];
+		a1 = new int[capacity];
+		a2 = new int[capacity];
+		a3 = new int[capacity];
+		vector = engine instanceof Rounds ? (Rounds)engine : null;
+	}
+
+	/**
+	 * Schedules keys[off] to keys[off+count-1], replacing the keys held.
+	 *
+	 * @param keys	The keys
+	 * @param off	Index of the first key
+	 * @param count	The number of keys
+	 */
+	public void schedule(int[][] keys,int off,int count){
+		if( count < 0 || count > capacity ){
+			throw new IllegalArgumentException("Batch holds at most " + capacity + " keys.");
+		}
+		size = count;
+		for( int i=0;i<count;i++ ){
+			set(i, keys[off+i]);
+		}
+		if( AkelarreMetrics.ENABLED ){
+			AkelarreMetrics.shared().scheduled(count);
+		}
+	}
+
+	/**
+	 * Schedules count consecutive keys of one word: first, first+1 and so
+	 * on, replacing the keys held. This is the layout of a counter search
+	 * and needs no key arrays.
+	 *
+	 * @param first	The first key
+	 * @param count	The number of keys
+	 */
+	public void scheduleRange(int first,int count){
+		if( count < 0 || count > capacity ){
+			throw new IllegalArgumentException("Batch holds at most " + capacity + " keys.");
+		}
+		if( scheduler.KEY_SIZE != 4 ){
+			throw new IllegalArgumentException("Key provided of improper length.");
+		}
+		size = count;
+		// Subkeys of the high subblock are the same for every key sharing
+		// it, so each run of them is filled in; only the low subblock is
+		// scheduled per key.
+		for( int i=0;i<count; ){
+			int hi = (first+i) >>> 16;
+			int end = Math.min(count, i + 0x10000 - ((first+i) & 0xFFFF));
+			scheduler.scheduleSubblock(row,0,2,hi);
+			for( int j=0;j<numSubkeys;j+=2 ){
+				Arrays.fill(K, j*capacity+i, j*capacity+end, row[j]);
+			}
+			for( ; i<end; i++ ){
+				scheduler.scheduleSubblock(row,1,2,(first+i) & 0xFFFF);
+				for( int j=1;j<numSubkeys;j+=2 ){
+					K[j*capacity+i] = row[j];
+				}
+			}
+		}
+		if( AkelarreMetrics.ENABLED ){
+			AkelarreMetrics.shared().scheduled(count);
+		}
+	}
+
+	/**
+	 * Schedules one key into slot i.
+	 */
+	private void set(int i,int[] key){
+		if( key.length != scheduler.KEY_SIZE/4 ){
+			throw new IllegalArgumentException("Key provided of improper length.");
+		}
+		int n = key.length*2;
+		for( int j=0;j<n;j++ ){
+			scheduler.scheduleSubblock(row,j,n,KeyScheduler.halfword(key,j));
+		}
+		store(i);
+	}
+
+	/**
+	 * Copies the subkeys in row into slot i.
+	 */
+	private void store(int i){
+		for( int j=0;j<numSubkeys;j++ ){
+			K[j*capacity+i] = row[j];
+		}
+	}
+
+	/**
+	 * @return The number of keys scheduled.
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * @return The most keys the batch holds.
+	 */
+	public int getCapacity(){
+		return capacity;
+	}
+
+	/**
+	 * @param i	Index of the key
+	 * @return A copy of the encryption subkeys of key i.
+	 */
+	public int[] getSubkeys(int i){
+		if( i < 0 || i >= size ){
+			throw new IllegalArgumentException("No key at index " + i + ".");
+		}
+		int[] Z = new int[numSubkeys];
+		for( int j=0;j<numSubkeys;j++ ){
+			Z[j] = K[j*capacity+i];
+		}
+		return Z;
+	}
+
+	/**
+	 * Encrypts one block under every key.
+	 *
+	 * @param plaintext	The four plaintext words
+	 * @param out	Receives the cipher texts, word w under key i at
+	 * out[w*size()+i]. Must hold 4*size() words.
+	 */
+	public void encrypt(int[] plaintext,int[] out){
+		if( out.length < 4*size ){
+			throw new IllegalArgumentException("Output buffer too small.");
+		}
+		run(plaintext);
+		System.arraycopy(a0, 0, out, 0, size);
+		System.arraycopy(a1, 0, out, size, size);
+		System.arraycopy(a2, 0, out, 2*size, size);
+		System.arraycopy(a3, 0, out, 3*size, size);
+	}
+
+	/**
+	 * Encrypts one block under every key and compares with the cipher text.
+	 *
+	 * @param plaintext	The four plaintext words
+	 * @param ciphertext	The four cipher text words
+	 * @return The index of the first key giving ciphertext, or -1.
+	 */
+	public int firstMatch(int[] plaintext,int[] ciphertext){
+		run(plaintext);
+		int c0 = ciphertext[0], c1 = ciphertext[1], c2 = ciphertext[2], c3 = ciphertext[3];
+		for( int i=0;i<size;i++ ){
+			if( ((a0[i] ^ c0) | (a1[i] ^ c1) | (a2[i] ^ c2) | (a3[i] ^ c3)) == 0 ){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Runs the plaintext through the rounds under every key, leaving the
+	 * cipher texts in a0 to a3.
+	 */
+	private void run(int[] pt){
+		final int n = size, c = capacity;
+		final int[] K = this.K, a0 = this.a0, a1 = this.a1, a2 = this.a2, a3 = this.a3;
+		if( AkelarreMetrics.ENABLED ){
+			AkelarreMetrics.shared().blocks(true, n);
+		}
+
+		//Initialization
+		for( int i=0;i<n;i++ ){
+			a0[i] = pt[0] + K[i];
+			a1[i] = pt[1] ^ K[c+i];
+			a2[i] = pt[2] ^ K[2*c+i];
+			a3[i] = pt[3] + K[3*c+i];
+		}
+
+		for( int r=0;r<rounds;r++ ){
+			//Step 1,2,3
+			if( doRotate ){
+				rotate(13*r+4);
+			}
+
+			//Step 4,5,6
+			int kb = (13*r+5)*c;
+			int i = vector == null ? 0 : vector.round(a0, a1, a2, a3, K, kb, c, n);
+			for( ;i<n;i++ ){
+				int P1 = a0[i] ^ a2[i];
+				int P2 = a1[i] ^ a3[i];
+				int t1 = rotl31(P1,P2&0x1f)             + K[kb+i];
+				t1 = rotl1(t1,(P1>>>5)&0x1f)            + K[kb+c+i];
+				t1 = rotl31(t1,(P1>>>10)&0x1f)          + K[kb+2*c+i];
+				t1 = rotl1(t1,(P1>>>15)&0x1f)           + K[kb+3*c+i];
+				t1 = rotl31(t1,(P1>>>20)&0xf)           + K[kb+4*c+i];
+				t1 = rotl1(t1,(P1>>>24)&0xf)            + K[kb+5*c+i];
+				int t0 = rotl1(t1,P1&0x1f)              + K[kb+6*c+i];
+				t0 = rotl31(t0,(P1>>>5)&0x1f)           + K[kb+7*c+i];
+				t0 = rotl1(t0,(P1>>>10)&0x1f)           + K[kb+8*c+i];
+				t0 = rotl31(t0,(P1>>>15)&0x1f)          + K[kb+9*c+i];
+				t0 = rotl1(t0,(P1>>>20)&0xf)            + K[kb+10*c+i];
+				t0 = rotl31(t0,(P1>>>24)&0xf)           + K[kb+11*c+i];
+				a0[i] ^= t1;
+				a2[i] ^= t1;
+				a1[i] ^= t0;
+				a3[i] ^= t0;
+			}
+		}
+
+		//Output Transformation
+		if( doRotate ){
+			rotate(13*rounds+4);
+		}
+		int o = 13*rounds+5;
+		for( int i=0;i<n;i++ ){
+			a0[i] += K[o*c+i];
+			a1[i] ^= K[(o+1)*c+i];
+			a2[i] ^= K[(o+2)*c+i];
+			a3[i] += K[(o+3)*c+i];
+		}
+	}
+
+	/**
+	 * Rotates the state of every key left by its own subkey j.
+	 */
+	private void rotate(int j){
+		for( int i=0;i<size;i++ ){
+			int n = K[j*capacity+i] & Akelarre.LAST_7_BITS;
+			long hi = ((long)a0[i] << 32) | (a1[i] & Akelarre.MASK);
+			long lo = ((long)a2[i] << 32) | (a3[i] & Akelarre.MASK);
+			long h = Akelarre.rotl128Hi(hi, lo, n);
+			lo = Akelarre.rotl128Lo(hi, lo, n);
+			a0[i] = (int)(h >>> 32);
+			a1[i] = (int)h;
+			a2[i] = (int)(lo >>> 32);
+			a3[i] = (int)lo;
+		}
+	}
+}
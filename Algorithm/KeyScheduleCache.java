@@ -0,0 +1,183 @@
+package Akelarre;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of scheduled keys, keyed by the key, the key size and
+ * the number of rounds. When the cache is full the least recently used
+ * schedule is evicted. It is safe to use from many threads; the schedule
+ * itself is computed outside the lock.
+ *
+ * The cached ScheduledKeys are immutable and shared between every cipher
+ * built from the same key.
+ *
+ * The Akelarre constructors use the shared cache only when the system
+ * property akelarre.keycache is "true". It keeps up to DEFAULT_CAPACITY
+ * keys, and their subkeys, reachable until they are evicted or clear() is
+ * called, so it is off by default. Code that wants caching without the
+ * shared instance can keep its own cache and pass the ScheduledKeys it
+ * returns to new Akelarre(ScheduledKey).
+ *
+ * Sample Usage:
+ * java -Dakelarre.keycache=true ... then every new Akelarre(rounds, size,
+ * key) for a recently used key costs a lookup.
+ */
+public class KeyScheduleCache {
+
+	/**
+	 * The default number of schedules kept.
+	 */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	/**
+	 * Whether the Akelarre constructors go through the shared cache.
+	 */
+	public static final boolean SHARED_ENABLED = Boolean.getBoolean("akelarre.keycache");
+
+	/**
+	 * The cache used by the Akelarre constructors when SHARED_ENABLED.
+	 */
+	private static final KeyScheduleCache SHARED = new KeyScheduleCache(DEFAULT_CAPACITY);
+
+	/**
+	 * The schedules, in access order.
+	 */
+	private final LinkedHashMap<Entry,ScheduledKey> map;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Constructs a cache.
+	 *
+	 * @param capacity	The maximum number of schedules kept
+	 */
+	public KeyScheduleCache(final int capacity){
+		if( capacity < 1 ){
+			throw new IllegalArgumentException("Capacity must be positive.");
+		}
+		map = new LinkedHashMap<Entry,ScheduledKey>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Entry,ScheduledKey> eldest){
+				if( size() > capacity ){
+					evictions.increment();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * The shared cache holds its keys until they are evicted or clear() is
+	 * called. The Akelarre constructors only use it when SHARED_ENABLED.
+	 *
+	 * @return The cache shared by the Akelarre constructors.
+	 */
+	public static KeyScheduleCache shared(){
+		return SHARED;
+	}
+
+	/**
+	 * Returns the scheduled key, scheduling it on a miss.
+	 *
+	 * @param num_rounds	Number of rounds
+	 * @param key_size	Key size in bytes
+	 * @param key	The key
+	 * @return The scheduled key
+	 */
+	public ScheduledKey get(int num_rounds,int key_size,int[] key){
+		Entry e = new Entry(num_rounds,key_size,key);
+		ScheduledKey keys;
+		synchronized( map ){
+			keys = map.get(e);
+		}
+		if( keys != null ){
+			hits.increment();
+			return keys;
+		}
+
+		misses.increment();
+		keys = ScheduledKey.schedule(num_rounds,key_size,key);
+		e.key = key.clone();
+		synchronized( map ){
+			ScheduledKey raced = map.putIfAbsent(e, keys);
+			return raced != null ? raced : keys;
+		}
+	}
+
+	/**
+	 * @return The number of lookups that found a schedule.
+	 */
+	public long getHits(){
+		return hits.sum();
+	}
+
+	/**
+	 * @return The number of lookups that had to schedule the key.
+	 */
+	public long getMisses(){
+		return misses.sum();
+	}
+
+	/**
+	 * @return The number of schedules dropped to make room.
+	 */
+	public long getEvictions(){
+		return evictions.sum();
+	}
+
+	/**
+	 * @return The number of schedules held.
+	 */
+	public int size(){
+		synchronized( map ){
+			return map.size();
+		}
+	}
+
+	/**
+	 * Drops every schedule and zeroes the counters.
+	 */
+	public void clear(){
+		synchronized( map ){
+			map.clear();
+		}
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+	}
+
+	/**
+	 * The cache key.
+	 */
+	private static class Entry {
+		private int rounds, keySize, hash;
+		private int[] key;
+
+		Entry(int rounds,int keySize,int[] key){
+			this.rounds = rounds;
+			this.keySize = keySize;
+			this.key = key;
+			this.hash = (Arrays.hashCode(key)*31 + rounds)*31 + keySize;
+		}
+
+		@Override
+		public int hashCode(){
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o){
+			if( !(o instanceof Entry) ) return false;
+			Entry e = (Entry)o;
+			return rounds == e.rounds && keySize == e.keySize && Arrays.equals(key, e.key);
+		}
+	}
+}
@@ -1,10 +1,10 @@
 package Akelarre;
 
 public class KeyScheduler {
-	private final int NUM_ROUNDS;
+	final int NUM_ROUNDS;
 	public final int KEY_SIZE; // Key size in bytes
-	private final int A0 = 0xA49ED284;
-	private final int A1 = 0x735203DE;
+	static final int A0 = 0xA49ED284;
+	static final int A1 = 0x735203DE;
 
 	/**
 	 * Constructor for the Key Scheduler
@@ -30,6 +30,8 @@ public class KeyScheduler {
 	 * @return array of subkeys
 	 */
 	public int[] schedule(int[] key){
+		AkelarreEvents.KeySchedule event = AkelarreEvents.schedule();
+		long st = AkelarreMetrics.ENABLED ? System.nanoTime() : 0;
 		//int[][] K = new int[NUM_ROUNDS+2][13];
 		int[] K = new int[13*NUM_ROUNDS+9];
 
@@ -40,41 +42,55 @@ public class KeyScheduler {
 		// Generate key.length*2 subblocks for
 		// use in the routine. These subblocks are formed
 		// by splitting each int in the key into two
-		// shorts
-		int[] s = new int[key.length*2];
-		int[] u = new int[key.length*2];
-		int[] v = new int[key.length*2];
-		for(int i=0;i<s.length;i+=2){
-			s[i]     = key[i/2] >>> 16;
-			s[i+1]   = key[i/2] & 0xFFFF;
-
-			u[i]     = (s[i]*s[i]+A0);
-			v[i]     = (s[i]*s[i]+A1);
-			u[i+1]   = (s[i+1]*s[i+1]+A0);
-			v[i+1]   = (s[i+1]*s[i+1]+A1);
+		// shorts. Subkey i only depends on subblock
+		// i % (key.length*2).
+		int n = key.length*2;
+		for(int i=0;i<n;i++){
+			scheduleSubblock(K,i,n,halfword(key,i));
+		}
+		if( AkelarreMetrics.ENABLED ){
+			AkelarreMetrics.shared().schedule(System.nanoTime() - st);
 		}
+		event.end(this);
+		return K;
+	}
 
+	/**
+	 * @param key	The key
+	 * @param i	Index of the subblock
+	 * @return Subblock i of the key: the high short of key[i/2] when i is
+	 * even, the low short when it is odd.
+	 */
+	static int halfword(int[] key,int i){
+		return (i & 1) == 0 ? key[i >> 1] >>> 16 : key[i >> 1] & 0xFFFF;
+	}
 
-		/*
-		 * Scheduling algorithm
-		 */
-		for(int i=0;i<13*NUM_ROUNDS+9;i++){
-			int index = i % s.length;
-			int um = (u[index] >> 8) & 0xFFFF;
-			int vm = (v[index] >> 8) & 0xFFFF;
+	/**
+	 * Computes every subkey derived from one subblock of the key: subkeys
+	 * index, index+stride, index+2*stride and so on.
+	 *
+	 * @param K	The subkeys
+	 * @param index	Index of the subblock
+	 * @param stride	Number of subblocks in the key
+	 * @param s	The subblock
+	 */
+	void scheduleSubblock(int[] K,int index,int stride,int s){
+		int u = s*s+A0;
+		int v = s*s+A1;
+		for(int i=index;i<K.length;i+=stride){
+			int um = (u >> 8) & 0xFFFF;
+			int vm = (v >> 8) & 0xFFFF;
 			// Key:
 			// - Take outermost bytes of kl and swap them
 			// - Set the two most significant bytes of the key to those bytes
 			// - Take outermost bytes of kr and swap them
 			// - Set two least significant bytes of the key to those bytes
-			K[i] = ((u[index] << 24) & 0xFF000000) | ((u[index] >> 8) & 0xFF0000)  | ((v[index] << 8) & 0xFF00) | ((v[index] >> 24) & 0xFF);
+			K[i] = ((u << 24) & 0xFF000000) | ((u >> 8) & 0xFF0000)  | ((v << 8) & 0xFF00) | ((v >> 24) & 0xFF);
 
 			// Set left subblock to its middle 16 bits.
-
-			u[index] = um*um+A0;
-			v[index] = vm*vm+A1;
+			u = um*um+A0;
+			v = vm*vm+A1;
 		}
-		return K;
 	}
 
 	/**
@@ -0,0 +1,651 @@
+package Akelarre;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Runs an Akelarre cipher over whole byte[] regions and ByteBuffers in
+ * ECB, CBC or CTR mode, so callers do not have to chunk their data into
+ * blocks themselves.
+ *
+ * The engine works like a javax.crypto.Cipher: update() may be called any
+ * number of times with any amount of data, and doFinal() flushes the last
+ * block, handles PKCS#7 padding for ECB and CBC, and resets the engine to
+ * its initial vector. Words are read and written big-endian.
+ *
+ * Sample Usage:
+ * ModeEngine engine = new ModeEngine(cipher, ModeEngine.Mode.CBC, true, iv);
+ * byte[] ct = engine.doFinal(pt, 0, pt.length);
+ */
+public class ModeEngine {
+
+	/**
+	 * The supported block cipher modes.
+	 */
+	public enum Mode { ECB, CBC, CTR }
+
+	/**
+	 * The cipher to run.
+	 */
+	private Akelarre cipher;
+
+	/**
+	 * The mode to run the cipher in.
+	 */
+	private Mode mode;
+
+	/**
+	 * True when encrypting, false when decrypting.
+	 */
+	private boolean encrypting;
+
+	/**
+	 * True if ECB and CBC data is PKCS#7 padded. CTR is never padded.
+	 */
+	private boolean padding;
+
+	/**
+	 * The initial vector, or initial counter for CTR.
+	 */
+	private int[] iv = new int[4];
+
+	/**
+	 * The CBC chaining value or the CTR counter.
+	 */
+	private int[] chain = new int[4];
+
+	/**
+	 * The block currently being processed.
+	 */
+	private int[] block = new int[4];
+
+	/**
+	 * The next CBC chaining value while decrypting, or the CTR key stream.
+	 */
+	private int[] next = new int[4];
+
+	/**
+	 * The engine ECB and CTR blocks are handed to in batches.
+	 */
+	private BlockEngine engine = BlockEngines.get();
+
+	/**
+	 * A batch of blocks for the engine.
+	 */
+	private int[] words = new int[4*BlockEngines.BATCH_BLOCKS];
+
+	/**
+	 * The number of bytes of the CTR key stream that have been used.
+	 */
+	private int streamPos = Akelarre.BLOCK_SIZE;
+
+	/**
+	 * Bytes of a partial block that are waiting for more input.
+	 */
+	private byte[] buf = new byte[Akelarre.BLOCK_SIZE];
+
+	/**
+	 * The number of bytes held in buf.
+	 */
+	private int bufLen;
+
+	/**
+	 * Constructs an engine that pads ECB and CBC data.
+	 *
+	 * @param cipher	The cipher to run
+	 * @param mode	The mode to run it in
+	 * @param encrypting	True to encrypt, false to decrypt
+	 * @param iv	The 16 byte initial vector, may be null for ECB
+	 */
+	public ModeEngine(Akelarre cipher,Mode mode,boolean encrypting,byte[] iv){
+		this(cipher,mode,encrypting,iv,mode != Mode.CTR);
+	}
+
+	/**
+	 * Constructs an engine.
+	 *
+	 * @param cipher	The cipher to run
+	 * @param mode	The mode to run it in
+	 * @param encrypting	True to encrypt, false to decrypt
+	 * @param iv	The 16 byte initial vector, may be null for ECB
+	 * @param padding	True if ECB and CBC data should be PKCS#7 padded
+	 */
+	public ModeEngine(Akelarre cipher,Mode mode,boolean encrypting,byte[] iv,boolean padding){
+		if( mode != Mode.ECB && (iv == null || iv.length != Akelarre.BLOCK_SIZE) ){
+			throw new IllegalArgumentException("Mode " + mode + " requires a 16 byte IV.");
+		}
+		this.cipher = cipher;
+		this.mode = mode;
+		this.encrypting = encrypting;
+		this.padding = padding && mode != Mode.CTR;
+		if( iv != null ){
+			Akelarre.unpack(iv, 0, this.iv, 0);
+		}
+		reset();
+	}
+
+	/**
+	 * @return The mode this engine runs in.
+	 */
+	public Mode getMode(){
+		return mode;
+	}
+
+	/**
+	 * @return True if this engine encrypts.
+	 */
+	public boolean isEncrypting(){
+		return encrypting;
+	}
+
+	/**
+	 * Discards any buffered input and restores the initial vector.
+	 */
+	public void reset(){
+		System.arraycopy(iv, 0, chain, 0, 4);
+		bufLen = 0;
+		streamPos = Akelarre.BLOCK_SIZE;
+	}
+
+	/**
+	 * Returns the number of bytes the next update() call will produce for
+	 * len bytes of input.
+	 *
+	 * @param len	The number of input bytes
+	 * @return	The number of output bytes
+	 */
+	public int getUpdateOutputSize(int len){
+		if( mode == Mode.CTR ){
+			return len;
+		}
+		int total = bufLen + len;
+		if( padding && !encrypting ){
+			// hold back the final block, it carries the padding
+			return total == 0 ? 0 : (total-1) / Akelarre.BLOCK_SIZE * Akelarre.BLOCK_SIZE;
+		}
+		return total / Akelarre.BLOCK_SIZE * Akelarre.BLOCK_SIZE;
+	}
+
+	/**
+	 * Returns an upper bound on the number of bytes doFinal() will produce
+	 * for len more bytes of input.
+	 *
+	 * @param len	The number of input bytes
+	 * @return	The maximum number of output bytes
+	 */
+	public int getOutputSize(int len){
+		if( mode == Mode.CTR ){
+			return len;
+		}
+		int total = bufLen + len;
+		if( padding && encrypting ){
+			return total / Akelarre.BLOCK_SIZE * Akelarre.BLOCK_SIZE + Akelarre.BLOCK_SIZE;
+		}
+		return total;
+	}
+
+	/**
+	 * Processes len bytes of in starting at inOff and writes the output to
+	 * out at outOff. Partial blocks are buffered until more input arrives.
+	 * in and out may be the same array, with the ranges overlapping.
+	 *
+	 * @return	The number of bytes written to out
+	 */
+	public int update(byte[] in,int inOff,int len,byte[] out,int outOff){
+		AkelarreEvents.BulkCrypt event = AkelarreEvents.bulk();
+		long st = AkelarreMetrics.ENABLED ? System.nanoTime() : 0;
+		int n = process(in, inOff, len, out, outOff);
+		record(len, st, event);
+		return n;
+	}
+
+	/**
+	 * The body of update(in,inOff,len,out,outOff).
+	 */
+	private int process(byte[] in,int inOff,int len,byte[] out,int outOff){
+		int n = getUpdateOutputSize(len);
+		if( out.length - outOff < n ){
+			throw new IllegalArgumentException("Output buffer too small.");
+		}
+		if( in == out && inOff < outOff+bufLen && outOff < inOff+len && inOff < outOff+n ){
+			// the output runs bufLen bytes ahead of the input, so unless it
+			// starts at least that far behind it would overwrite unread input
+			in = Arrays.copyOfRange(in, inOff, inOff+len);
+			inOff = 0;
+		}
+
+		int[] k = keys();
+		int rounds = cipher.num_rounds;
+		boolean rotate = cipher.doRotate;
+
+		if( mode == Mode.CTR ){
+			int end = inOff + len;
+			while( inOff < end && streamPos < Akelarre.BLOCK_SIZE ){
+				out[outOff++] = (byte)(in[inOff++] ^ streamByte(streamPos++));
+			}
+			int whole = (end - inOff) / Akelarre.BLOCK_SIZE * Akelarre.BLOCK_SIZE;
+			blocks(in, inOff, out, outOff, whole, k, rounds, rotate);
+			inOff += whole;
+			outOff += whole;
+			if( inOff < end ){
+				nextStream(k, rounds, rotate);
+				while( inOff < end ){
+					out[outOff++] = (byte)(in[inOff++] ^ streamByte(streamPos++));
+				}
+			}
+			return len;
+		}
+
+		int remaining = n;
+		if( bufLen > 0 && remaining > 0 ){
+			int take = Akelarre.BLOCK_SIZE - bufLen;
+			System.arraycopy(in, inOff, buf, bufLen, take);
+			inOff += take;
+			len -= take;
+			Akelarre.unpack(buf, 0, block, 0);
+			processBlock(k, rounds, rotate);
+			Akelarre.pack(block, 0, out, outOff);
+			outOff += Akelarre.BLOCK_SIZE;
+			remaining -= Akelarre.BLOCK_SIZE;
+			bufLen = 0;
+		}
+		blocks(in, inOff, out, outOff, remaining, k, rounds, rotate);
+		inOff += remaining;
+		len -= remaining;
+		System.arraycopy(in, inOff, buf, bufLen, len);
+		bufLen += len;
+		return n;
+	}
+
+	/**
+	 * Processes the bytes remaining in in and writes the output to out,
+	 * advancing the positions of both buffers. Direct buffers are read and
+	 * written in place without intermediate copies.
+	 *
+	 * @return	The number of bytes written to out
+	 */
+	public int update(ByteBuffer in,ByteBuffer out){
+		AkelarreEvents.BulkCrypt event = AkelarreEvents.bulk();
+		long st = AkelarreMetrics.ENABLED ? System.nanoTime() : 0;
+		int len = in.remaining();
+		int n = process(in, out);
+		record(len, st, event);
+		return n;
+	}
+
+	/**
+	 * The body of update(in,out).
+	 */
+	private int process(ByteBuffer in,ByteBuffer out){
+		int len = in.remaining();
+		int n = getUpdateOutputSize(len);
+		if( out.remaining() < n ){
+			throw new IllegalArgumentException("Output buffer too small.");
+		}
+		if( in.hasArray() && out.hasArray() && !out.isReadOnly() ){
+			int written = process(in.array(), in.arrayOffset()+in.position(), len,
+					out.array(), out.arrayOffset()+out.position());
+			in.position(in.position()+len);
+			out.position(out.position()+written);
+			return written;
+		}
+
+		int[] k = keys();
+		int rounds = cipher.num_rounds;
+		boolean rotate = cipher.doRotate;
+		boolean inSwap = in.order() != ByteOrder.BIG_ENDIAN;
+		boolean outSwap = out.order() != ByteOrder.BIG_ENDIAN;
+		int inPos = in.position(), outPos = out.position();
+
+		if( mode == Mode.CTR ){
+			int end = inPos + len;
+			while( inPos < end && streamPos < Akelarre.BLOCK_SIZE ){
+				out.put(outPos++, (byte)(in.get(inPos++) ^ streamByte(streamPos++)));
+			}
+			int whole = (end - inPos) / Akelarre.BLOCK_SIZE * Akelarre.BLOCK_SIZE;
+			blocks(in, inPos, inSwap, out, outPos, outSwap, whole, k, rounds, rotate);
+			inPos += whole;
+			outPos += whole;
+			if( inPos < end ){
+				nextStream(k, rounds, rotate);
+				while( inPos < end ){
+					out.put(outPos++, (byte)(in.get(inPos++) ^ streamByte(streamPos++)));
+				}
+			}
+			in.position(inPos);
+			out.position(outPos);
+			return len;
+		}
+
+		int remaining = n;
+		if( bufLen > 0 && remaining > 0 ){
+			int take = Akelarre.BLOCK_SIZE - bufLen;
+			in.get(inPos, buf, bufLen, take);
+			inPos += take;
+			len -= take;
+			Akelarre.unpack(buf, 0, block, 0);
+			processBlock(k, rounds, rotate);
+			write(out, outPos, outSwap);
+			outPos += Akelarre.BLOCK_SIZE;
+			remaining -= Akelarre.BLOCK_SIZE;
+			bufLen = 0;
+		}
+		blocks(in, inPos, inSwap, out, outPos, outSwap, remaining, k, rounds, rotate);
+		inPos += remaining;
+		outPos += remaining;
+		len -= remaining;
+		in.get(inPos, buf, bufLen, len);
+		bufLen += len;
+		in.position(inPos+len);
+		out.position(outPos);
+		return n;
+	}
+
+	/**
+	 * Flushes the buffered input, adding or removing padding, writes the
+	 * result to out at outOff and resets the engine.
+	 *
+	 * @return	The number of bytes written to out
+	 */
+	public int doFinal(byte[] out,int outOff){
+		int n = finish();
+		if( out.length - outOff < n ){
+			throw new IllegalArgumentException("Output buffer too small.");
+		}
+		System.arraycopy(buf, 0, out, outOff, n);
+		reset();
+		return n;
+	}
+
+	/**
+	 * Processes len bytes of in, then finishes as doFinal(out,outOff).
+	 *
+	 * @return	The number of bytes written to out
+	 */
+	public int doFinal(byte[] in,int inOff,int len,byte[] out,int outOff){
+		int n = update(in, inOff, len, out, outOff);
+		return n + doFinal(out, outOff+n);
+	}
+
+	/**
+	 * Processes len bytes of in as a single message and returns the result.
+	 *
+	 * @return	The encrypted or decrypted bytes
+	 */
+	public byte[] doFinal(byte[] in,int inOff,int len){
+		byte[] out = new byte[getOutputSize(len)];
+		int n = doFinal(in, inOff, len, out, 0);
+		return n == out.length ? out : Arrays.copyOf(out, n);
+	}
+
+	/**
+	 * Processes the bytes remaining in in, then flushes the buffered input
+	 * to out and resets the engine.
+	 *
+	 * @return	The number of bytes written to out
+	 */
+	public int doFinal(ByteBuffer in,ByteBuffer out){
+		int n = update(in, out);
+		int last = finish();
+		if( out.remaining() < last ){
+			throw new IllegalArgumentException("Output buffer too small.");
+		}
+		out.put(buf, 0, last);
+		reset();
+		return n + last;
+	}
+
+	/**
+	 * Processes the final buffered block into buf.
+	 *
+	 * @return	The number of bytes of buf that are output
+	 */
+	private int finish(){
+		if( mode == Mode.CTR ){
+			return 0;
+		}
+		int[] k = keys();
+		if( encrypting ){
+			if( !padding ){
+				if( bufLen != 0 ){
+					throw new IllegalArgumentException("Input length not a multiple of the block size.");
+				}
+				return 0;
+			}
+			byte pad = (byte)(Akelarre.BLOCK_SIZE - bufLen);
+			Arrays.fill(buf, bufLen, Akelarre.BLOCK_SIZE, pad);
+			Akelarre.unpack(buf, 0, block, 0);
+			processBlock(k, cipher.num_rounds, cipher.doRotate);
+			Akelarre.pack(block, 0, buf, 0);
+			return Akelarre.BLOCK_SIZE;
+		}
+
+		if( !padding ){
+			if( bufLen != 0 ){
+				throw new IllegalArgumentException("Input length not a multiple of the block size.");
+			}
+			return 0;
+		}
+		if( bufLen != Akelarre.BLOCK_SIZE ){
+			throw new IllegalArgumentException("Input length not a multiple of the block size.");
+		}
+		Akelarre.unpack(buf, 0, block, 0);
+		processBlock(k, cipher.num_rounds, cipher.doRotate);
+		Akelarre.pack(block, 0, buf, 0);
+		int pad = buf[Akelarre.BLOCK_SIZE-1];
+		if( pad < 1 || pad > Akelarre.BLOCK_SIZE ){
+			throw new IllegalArgumentException("Bad padding.");
+		}
+		for( int i=Akelarre.BLOCK_SIZE-pad; i < Akelarre.BLOCK_SIZE; i++ ){
+			if( buf[i] != pad ){
+				throw new IllegalArgumentException("Bad padding.");
+			}
+		}
+		return Akelarre.BLOCK_SIZE - pad;
+	}
+
+	/**
+	 * @return The subkeys the mode runs the cipher with. CTR always uses
+	 * the encryption subkeys.
+	 */
+	private int[] keys(){
+		return encrypting || mode == Mode.CTR ? cipher.encryptionKeys() : cipher.decryptionKeys();
+	}
+
+	/**
+	 * Runs the mode over len bytes of whole blocks from in, writing them to
+	 * out. ECB and CTR blocks do not depend on each other, so they are
+	 * handed to the block engine in batches.
+	 */
+	private void blocks(byte[] in,int inOff,byte[] out,int outOff,int len,int[] k,int rounds,boolean rotate){
+		if( mode == Mode.CBC ){
+			for( ; len > 0; len -= Akelarre.BLOCK_SIZE, inOff += Akelarre.BLOCK_SIZE, outOff += Akelarre.BLOCK_SIZE ){
+				Akelarre.unpack(in, inOff, block, 0);
+				processBlock(k, rounds, rotate);
+				Akelarre.pack(block, 0, out, outOff);
+			}
+			return;
+		}
+		while( len > 0 ){
+			int nb = Math.min(len / Akelarre.BLOCK_SIZE, BlockEngines.BATCH_BLOCKS);
+			for( int b=0; b < nb; b++ ){
+				if( mode == Mode.ECB ){
+					Akelarre.unpack(in, inOff + b*Akelarre.BLOCK_SIZE, words, 4*b);
+				}else{
+					System.arraycopy(chain, 0, words, 4*b, 4);
+					increment(chain);
+				}
+			}
+			engine.crypt(words, 0, nb, k, rounds, rotate);
+			if( AkelarreMetrics.ENABLED ){
+				count(nb);
+			}
+			for( int b=0; b < nb; b++ ){
+				if( mode == Mode.CTR ){
+					Akelarre.unpack(in, inOff + b*Akelarre.BLOCK_SIZE, block, 0);
+					for( int i=0; i < 4; i++ ){
+						words[4*b+i] ^= block[i];
+					}
+				}
+				Akelarre.pack(words, 4*b, out, outOff + b*Akelarre.BLOCK_SIZE);
+			}
+			len -= nb*Akelarre.BLOCK_SIZE;
+			inOff += nb*Akelarre.BLOCK_SIZE;
+			outOff += nb*Akelarre.BLOCK_SIZE;
+		}
+	}
+
+	/**
+	 * Runs the mode over len bytes of whole blocks from in at inPos,
+	 * writing them to out at outPos, as blocks() does for arrays.
+	 */
+	private void blocks(ByteBuffer in,int inPos,boolean inSwap,ByteBuffer out,int outPos,boolean outSwap,
+			int len,int[] k,int rounds,boolean rotate){
+		if( mode == Mode.CBC ){
+			for( ; len > 0; len -= Akelarre.BLOCK_SIZE, inPos += Akelarre.BLOCK_SIZE, outPos += Akelarre.BLOCK_SIZE ){
+				read(in, inPos, inSwap);
+				processBlock(k, rounds, rotate);
+				write(out, outPos, outSwap);
+			}
+			return;
+		}
+		while( len > 0 ){
+			int nb = Math.min(len / Akelarre.BLOCK_SIZE, BlockEngines.BATCH_BLOCKS);
+			int words4 = 4*nb;
+			if( mode == Mode.ECB ){
+				for( int i=0; i < words4; i++ ){
+					int w = in.getInt(inPos + 4*i);
+					words[i] = inSwap ? Integer.reverseBytes(w) : w;
+				}
+			}else{
+				for( int i=0; i < words4; i += 4 ){
+					System.arraycopy(chain, 0, words, i, 4);
+					increment(chain);
+				}
+			}
+			engine.crypt(words, 0, nb, k, rounds, rotate);
+			if( AkelarreMetrics.ENABLED ){
+				count(nb);
+			}
+			for( int i=0; i < words4; i++ ){
+				int w = words[i];
+				if( mode == Mode.CTR ){
+					int x = in.getInt(inPos + 4*i);
+					w ^= inSwap ? Integer.reverseBytes(x) : x;
+				}
+				out.putInt(outPos + 4*i, outSwap ? Integer.reverseBytes(w) : w);
+			}
+			len -= nb*Akelarre.BLOCK_SIZE;
+			inPos += nb*Akelarre.BLOCK_SIZE;
+			outPos += nb*Akelarre.BLOCK_SIZE;
+		}
+	}
+
+	/**
+	 * Runs the mode over the words in block, in place.
+	 */
+	private void processBlock(int[] k,int rounds,boolean rotate){
+		if( AkelarreMetrics.ENABLED && mode != Mode.CTR ){
+			count(1);
+		}
+		switch( mode ){
+			case ECB:
+				Akelarre.crypt(block, 0, k, rounds, rotate);
+				break;
+			case CBC:
+				if( encrypting ){
+					for( int i=0; i < 4; i++ ){
+						block[i] ^= chain[i];
+					}
+					Akelarre.crypt(block, 0, k, rounds, rotate);
+					System.arraycopy(block, 0, chain, 0, 4);
+				}else{
+					System.arraycopy(block, 0, next, 0, 4);
+					Akelarre.crypt(block, 0, k, rounds, rotate);
+					for( int i=0; i < 4; i++ ){
+						block[i] ^= chain[i];
+					}
+					int[] t = chain;
+					chain = next;
+					next = t;
+				}
+				break;
+			case CTR:
+				nextStream(k, rounds, rotate);
+				for( int i=0; i < 4; i++ ){
+					block[i] ^= next[i];
+				}
+				streamPos = Akelarre.BLOCK_SIZE;
+				break;
+		}
+	}
+
+	/**
+	 * Encrypts the counter into the key stream and increments the counter.
+	 */
+	private void nextStream(int[] k,int rounds,boolean rotate){
+		System.arraycopy(chain, 0, next, 0, 4);
+		Akelarre.crypt(next, 0, k, rounds, rotate);
+		increment(chain);
+		streamPos = 0;
+		if( AkelarreMetrics.ENABLED ){
+			count(1);
+		}
+	}
+
+	/**
+	 * Records blocks run through the cipher, with the subkeys keys() gives.
+	 */
+	private void count(int blocks){
+		AkelarreMetrics.shared().blocks(encrypting || mode == Mode.CTR, blocks);
+	}
+
+	/**
+	 * Records an update() over bytes bytes that started at st, in the
+	 * metrics and as a flight recorder event.
+	 */
+	private void record(int bytes,long st,AkelarreEvents.BulkCrypt event){
+		if( AkelarreMetrics.ENABLED ){
+			AkelarreMetrics.shared().bulk(bytes, System.nanoTime() - st);
+		}
+		event.end(bytes, mode.name(), encrypting);
+	}
+
+	/**
+	 * @return Byte i of the current CTR key stream.
+	 */
+	private byte streamByte(int i){
+		return (byte)(next[i >> 2] >>> (24 - 8*(i & 3)));
+	}
+
+	/**
+	 * Increments a 128 bit big-endian counter.
+	 */
+	static void increment(int[] ctr){
+		for( int i=3; i >= 0; i-- ){
+			if( ++ctr[i] != 0 ){
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Reads one block at pos of b into block.
+	 */
+	private void read(ByteBuffer b,int pos,boolean swap){
+		for( int i=0; i < 4; i++ ){
+			int w = b.getInt(pos + 4*i);
+			block[i] = swap ? Integer.reverseBytes(w) : w;
+		}
+	}
+
+	/**
+	 * Writes block to b at pos.
+	 */
+	private void write(ByteBuffer b,int pos,boolean swap){
+		for( int i=0; i < 4; i++ ){
+			b.putInt(pos + 4*i, swap ? Integer.reverseBytes(block[i]) : block[i]);
+		}
+	}
+}
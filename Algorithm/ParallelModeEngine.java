@@ -0,0 +1,258 @@
+package Akelarre;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import Akelarre.ModeEngine.Mode;
+
+/**
+ * Encrypts and decrypts whole messages on a ForkJoinPool. ECB and CTR
+ * blocks are independent of each other, as are CBC blocks when decrypting,
+ * so the message is split into chunks that are processed on separate
+ * cores. CBC encryption is inherently sequential and runs on the calling
+ * thread.
+ *
+ * The output is byte for byte the same as a ModeEngine with the same
+ * cipher, mode and IV, including the padding of ECB and CBC.
+ */
+public class ParallelModeEngine {
+
+	/**
+	 * The default number of bytes processed by a single task.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 64*1024;
+
+	/**
+	 * The cipher to run.
+	 */
+	private Akelarre cipher;
+
+	/**
+	 * The mode to run the cipher in.
+	 */
+	private Mode mode;
+
+	/**
+	 * The initial vector, or null for ECB.
+	 */
+	private byte[] iv;
+
+	/**
+	 * The pool the chunks run on.
+	 */
+	private ForkJoinPool pool;
+
+	/**
+	 * The number of blocks processed by a single task.
+	 */
+	private int chunkBlocks;
+
+	/**
+	 * Constructs an engine that runs on the common pool.
+	 *
+	 * @param cipher	The cipher to run
+	 * @param mode	The mode to run it in
+	 * @param iv	The 16 byte initial vector, may be null for ECB
+	 */
+	public ParallelModeEngine(Akelarre cipher,Mode mode,byte[] iv){
+		this(cipher,mode,iv,ForkJoinPool.commonPool(),DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Constructs an engine.
+	 *
+	 * @param cipher	The cipher to run
+	 * @param mode	The mode to run it in
+	 * @param iv	The 16 byte initial vector, may be null for ECB
+	 * @param pool	The pool to run the chunks on
+	 * @param chunkSize	The number of bytes processed by a single task
+	 */
+	public ParallelModeEngine(Akelarre cipher,Mode mode,byte[] iv,ForkJoinPool pool,int chunkSize){
+		if( mode != Mode.ECB && (iv == null || iv.length != Akelarre.BLOCK_SIZE) ){
+			throw new IllegalArgumentException("Mode " + mode + " requires a 16 byte IV.");
+		}
+		this.cipher = cipher;
+		this.mode = mode;
+		this.iv = iv == null ? null : iv.clone();
+		this.pool = pool;
+		this.chunkBlocks = Math.max(1, chunkSize / Akelarre.BLOCK_SIZE);
+	}
+
+	/**
+	 * Encrypts len bytes of in as a single message.
+	 *
+	 * @return	The cipher text
+	 */
+	public byte[] encrypt(byte[] in,int off,int len){
+		if( mode == Mode.CBC ){
+			return new ModeEngine(cipher,mode,true,iv).doFinal(in,off,len);
+		}
+		int blocks = len / Akelarre.BLOCK_SIZE;
+		int full = blocks * Akelarre.BLOCK_SIZE;
+		byte[] out = new byte[mode == Mode.CTR ? len : full + Akelarre.BLOCK_SIZE];
+
+		run(in, off, out, 0, blocks, true);
+
+		// the padded or partial last block
+		byte[] tailIv = mode == Mode.CTR ? counter(blocks) : null;
+		new ModeEngine(cipher,mode,true,tailIv).doFinal(in,off+full,len-full,out,full);
+		return out;
+	}
+
+	/**
+	 * Decrypts len bytes of in as a single message.
+	 *
+	 * @return	The plaintext
+	 */
+	public byte[] decrypt(byte[] in,int off,int len){
+		if( mode == Mode.CTR ){
+			return encrypt(in,off,len);
+		}
+		if( len == 0 || len % Akelarre.BLOCK_SIZE != 0 ){
+			throw new IllegalArgumentException("Input length not a multiple of the block size.");
+		}
+		int blocks = len / Akelarre.BLOCK_SIZE - 1;
+		int full = blocks * Akelarre.BLOCK_SIZE;
+		byte[] out = new byte[len];
+
+		run(in, off, out, 0, blocks, false);
+
+		// the last block carries the padding
+		byte[] tailIv = mode == Mode.CBC
+				? (blocks == 0 ? iv : Arrays.copyOfRange(in, off+full-Akelarre.BLOCK_SIZE, off+full))
+				: null;
+		int n = new ModeEngine(cipher,mode,false,tailIv).doFinal(in,off+full,Akelarre.BLOCK_SIZE,out,full);
+		return Arrays.copyOf(out, full+n);
+	}
+
+	/**
+	 * Processes blocks whole blocks, splitting them across the pool when
+	 * there are enough of them.
+	 */
+	private void run(byte[] in,int inOff,byte[] out,int outOff,int blocks,boolean encrypting){
+		AkelarreEvents.BulkCrypt event = AkelarreEvents.bulk();
+		long st = AkelarreMetrics.ENABLED ? System.nanoTime() : 0;
+		int[] k = encrypting || mode == Mode.CTR ? cipher.encryptionKeys() : cipher.decryptionKeys();
+		Chunk task = new Chunk(in,inOff,out,outOff,0,blocks,k,cipher.num_rounds,cipher.doRotate);
+		if( blocks <= chunkBlocks ){
+			task.compute();
+		}else{
+			pool.invoke(task);
+		}
+		if( AkelarreMetrics.ENABLED ){
+			// the last block is a ModeEngine call of its own
+			AkelarreMetrics m = AkelarreMetrics.shared();
+			m.blocks(encrypting || mode == Mode.CTR, blocks);
+			m.bulk((long)blocks*Akelarre.BLOCK_SIZE, System.nanoTime() - st);
+		}
+		event.end((long)blocks*Akelarre.BLOCK_SIZE, mode.name(), encrypting);
+	}
+
+	/**
+	 * @return The CTR counter for block number n of the message.
+	 */
+	private byte[] counter(long n){
+		int[] ctr = new int[4];
+		Akelarre.unpack(iv, 0, ctr, 0);
+		add(ctr, n);
+		byte[] b = new byte[Akelarre.BLOCK_SIZE];
+		Akelarre.pack(ctr, 0, b, 0);
+		return b;
+	}
+
+	/**
+	 * Adds n to a 128 bit big-endian counter.
+	 */
+	static void add(int[] ctr,long n){
+		long lo = ((long)ctr[2] << 32) | (ctr[3] & 0xFFFFFFFFL);
+		long sum = lo + n;
+		if( Long.compareUnsigned(sum, lo) < 0 ){
+			long hi = (((long)ctr[0] << 32) | (ctr[1] & 0xFFFFFFFFL)) + 1;
+			ctr[0] = (int)(hi >>> 32);
+			ctr[1] = (int)hi;
+		}
+		ctr[2] = (int)(sum >>> 32);
+		ctr[3] = (int)sum;
+	}
+
+	/**
+	 * Processes the blocks from..to of a message, splitting itself in two
+	 * while the range is larger than a chunk.
+	 */
+	private class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private byte[] in,out;
+		private int inOff,outOff,from,to,rounds;
+		private int[] k;
+		private boolean rotate;
+
+		Chunk(byte[] in,int inOff,byte[] out,int outOff,int from,int to,int[] k,int rounds,boolean rotate){
+			this.in=in;this.inOff=inOff;this.out=out;this.outOff=outOff;
+			this.from=from;this.to=to;this.k=k;this.rounds=rounds;this.rotate=rotate;
+		}
+
+		@Override
+		protected void compute(){
+			if( to - from > chunkBlocks ){
+				int mid = (from + to) >>> 1;
+				invokeAll(new Chunk(in,inOff,out,outOff,from,mid,k,rounds,rotate),
+						new Chunk(in,inOff,out,outOff,mid,to,k,rounds,rotate));
+				return;
+			}
+
+			int[] block = new int[4];
+			int[] ctr = new int[4];
+			if( mode == Mode.CTR ){
+				Akelarre.unpack(iv, 0, ctr, 0);
+				add(ctr, from);
+			}
+			if( mode != Mode.CBC ){
+				// independent blocks go to the block engine in batches
+				BlockEngine engine = BlockEngines.get();
+				int[] words = new int[4*BlockEngines.BATCH_BLOCKS];
+				for( int b=from; b < to; ){
+					int nb = Math.min(to - b, BlockEngines.BATCH_BLOCKS);
+					int i = inOff + b*Akelarre.BLOCK_SIZE;
+					int o = outOff + b*Akelarre.BLOCK_SIZE;
+					for( int j=0; j < nb; j++ ){
+						if( mode == Mode.ECB ){
+							Akelarre.unpack(in, i + j*Akelarre.BLOCK_SIZE, words, 4*j);
+						}else{
+							System.arraycopy(ctr, 0, words, 4*j, 4);
+							ModeEngine.increment(ctr);
+						}
+					}
+					engine.crypt(words, 0, nb, k, rounds, rotate);
+					for( int j=0; j < nb; j++ ){
+						if( mode == Mode.CTR ){
+							Akelarre.unpack(in, i + j*Akelarre.BLOCK_SIZE, block, 0);
+							for( int w=0; w < 4; w++ ){
+								words[4*j+w] ^= block[w];
+							}
+						}
+						Akelarre.pack(words, 4*j, out, o + j*Akelarre.BLOCK_SIZE);
+					}
+					b += nb;
+				}
+				return;
+			}
+
+			for( int b=from; b < to; b++ ){
+				// CBC decryption, P[b] = D(C[b]) ^ C[b-1]
+				int i = inOff + b*Akelarre.BLOCK_SIZE;
+				int o = outOff + b*Akelarre.BLOCK_SIZE;
+				Akelarre.unpack(in, i, block, 0);
+				Akelarre.crypt(block, 0, k, rounds, rotate);
+				byte[] src = b == 0 ? iv : in;
+				for( int j=0; j < Akelarre.BLOCK_SIZE; j += 4 ){
+					int p = b == 0 ? j : i - Akelarre.BLOCK_SIZE + j;
+					block[j >> 2] ^= (src[p] << 24) | ((src[p+1] & 0xFF) << 16)
+							| ((src[p+2] & 0xFF) << 8) | (src[p+3] & 0xFF);
+				}
+				Akelarre.pack(block, 0, out, o);
+			}
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package Akelarre;
+
+/**
+ * A block engine that runs one block at a time through the round function.
+ */
+public class ScalarEngine implements BlockEngine {
+
+	@Override
+	public String getName(){
+		return "scalar";
+	}
+
+	@Override
+	public void crypt(int[] w,int off,int blocks,int[] k,int rounds,boolean rotate){
+		for( ; blocks > 0; blocks--, off += 4 ){
+			Akelarre.crypt(w, off, k, rounds, rotate);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package Akelarre;
+
+/**
+ * A key that has been run through the key scheduler. It never changes once
+ * built, so one instance can be shared by any number of threads without
+ * locking. Each thread wraps it in its own Akelarre, which is then only a
+ * lightweight context holding the rotation flag and scratch state.
+ *
+ * The decryption subkeys are derived from the encryption subkeys the first
+ * time they are needed, so encrypt-only users never compute or store them.
+ *
+ * Sample Usage:
+ * ScheduledKey key = ScheduledKey.schedule(4, 8, new int[]{k0, k1});
+ * // on each worker thread
+ * Akelarre cipher = new Akelarre(key);
+ */
+public final class ScheduledKey {
+
+	/**
+	 * Whether keys are scheduled with TableKeyScheduler, set with the system
+	 * property akelarre.keyschedule=table.
+	 */
+	private static final boolean TABLES = "table".equals(System.getProperty("akelarre.keyschedule"));
+
+	/**
+	 * The number of rounds the subkeys are for.
+	 */
+	private final int rounds;
+
+	/**
+	 * The key size in bytes.
+	 */
+	private final int keySize;
+
+	/**
+	 * Encryption subkeys.
+	 */
+	private final int[] Z;
+
+	/**
+	 * Decryption subkeys, null until first needed. Deriving them is
+	 * deterministic, so two threads racing to fill this in store equal
+	 * arrays and either one may win.
+	 */
+	private volatile int[] D;
+
+	/**
+	 * Constructs a scheduled key from subkeys that nobody else holds.
+	 */
+	ScheduledKey(int rounds,int keySize,int[] Z,int[] D){
+		this.rounds = rounds;
+		this.keySize = keySize;
+		this.Z = Z;
+		this.D = D;
+	}
+
+	/**
+	 * Schedules a key. Only the encryption subkeys are computed.
+	 *
+	 * @param num_rounds	Number of rounds
+	 * @param key_size	Key size in bytes
+	 * @param key	The key
+	 * @return The scheduled key
+	 */
+	public static ScheduledKey schedule(int num_rounds,int key_size,int[] key){
+		KeyScheduler scheduler = TABLES ? new TableKeyScheduler(num_rounds,key_size) : new KeyScheduler(num_rounds,key_size);
+		return new ScheduledKey(num_rounds,key_size,scheduler.schedule(key),null);
+	}
+
+	/**
+	 * @return The number of rounds the subkeys are for.
+	 */
+	public int getRounds(){
+		return rounds;
+	}
+
+	/**
+	 * @return The key size in bytes.
+	 */
+	public int getKeySize(){
+		return keySize;
+	}
+
+	/**
+	 * @return A copy of the encryption subkeys.
+	 */
+	public int[] getEncryptionSubkeys(){
+		return Z.clone();
+	}
+
+	/**
+	 * @return A copy of the decryption subkeys.
+	 */
+	public int[] getDecryptionSubkeys(){
+		return decryptionKeys().clone();
+	}
+
+	/**
+	 * @return True if the decryption subkeys have been derived.
+	 */
+	public boolean hasDecryptionSubkeys(){
+		return D != null;
+	}
+
+	/**
+	 * @return The encryption subkeys, shared with this key.
+	 */
+	int[] encryptionKeys(){
+		return Z;
+	}
+
+	/**
+	 * @return The decryption subkeys, shared with this key.
+	 */
+	int[] decryptionKeys(){
+		int[] d = D;
+		if( d == null ){
+			D = d = new KeyScheduler(rounds,keySize).createDecryptionSubkeys(Z);
+		}
+		return d;
+	}
+
+	/**
+	 * Encrypts a single block from in at inOff into out at outOff. This
+	 * holds no state and may be called from any thread.
+	 *
+	 * @param in	The plaintext words
+	 * @param inOff	Offset of the block in in
+	 * @param out	The array receiving the cipher text
+	 * @param outOff	Offset of the block in out
+	 * @param rotate	Whether the 128 bit rotations take place
+	 */
+	public void encryptBlock(int[] in,int inOff,int[] out,int outOff,boolean rotate){
+		System.arraycopy(in, inOff, out, outOff, 4);
+		Akelarre.crypt(out, outOff, Z, rounds, rotate);
+	}
+
+	/**
+	 * Decrypts a single block from in at inOff into out at outOff. This
+	 * holds no state and may be called from any thread.
+	 *
+	 * @param in	The cipher text words
+	 * @param inOff	Offset of the block in in
+	 * @param out	The array receiving the plaintext
+	 * @param outOff	Offset of the block in out
+	 * @param rotate	Whether the 128 bit rotations take place
+	 */
+	public void decryptBlock(int[] in,int inOff,int[] out,int outOff,boolean rotate){
+		System.arraycopy(in, inOff, out, outOff, 4);
+		Akelarre.crypt(out, outOff, decryptionKeys(), rounds, rotate);
+	}
+}
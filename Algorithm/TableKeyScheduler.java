@@ -0,0 +1,101 @@
+package Akelarre;
+
+/**
+ * A key scheduler that looks up each step of the schedule in tables
+ * instead of computing it. After the first step the state of a subblock's
+ * walk is two 16 bit values, the middles of u and v, and everything the
+ * next step needs is a fixed function of each: the half of the subkey it
+ * contributes and the next middle value. Both are tabulated over all 2^16
+ * inputs once per JVM and packed into one int per input, two tables of
+ * 256 KiB, so each half of a subkey costs one load and no multiplies.
+ *
+ * Each step of a walk depends on the one before, so the two subblocks of
+ * a key word are walked together to keep several loads in flight. It
+ * produces exactly the subkeys KeyScheduler does. ScheduledKey uses it when
+ * the system property akelarre.keyschedule is set to "table"; whether it
+ * beats the multiplies depends on the machine, see KeyScheduleBenchmark.
+ *
+ * Sample Usage:
+ * int[] Z = new TableKeyScheduler(4, 8).schedule(key);
+ */
+public class TableKeyScheduler extends KeyScheduler {
+
+	/**
+	 * Constructs a table driven key scheduler.
+	 *
+	 * @param num_rounds Number of rounds Akelarre will perform
+	 * @param key_size Size of the key in bytes
+	 */
+	public TableKeyScheduler(int num_rounds,int key_size){
+		super(num_rounds,key_size);
+	}
+
+	/**
+	 * Scheduling routine. Accepts a key of KEY_LENGTH bytes and
+	 * generates 13*NUM_ROUNDS+9 subkeys based off that key.
+	 *
+	 * @param key key to use for calculating the subkeys
+	 * @return array of subkeys
+	 */
+	@Override
+	public int[] schedule(int[] key){
+		if( key.length != KEY_SIZE/4 ){
+			throw new IllegalArgumentException("Key provided of improper length.");
+		}
+		AkelarreEvents.KeySchedule event = AkelarreEvents.schedule();
+		long st = AkelarreMetrics.ENABLED ? System.nanoTime() : 0;
+		int[] TU = Tables.TU, TV = Tables.TV;
+		int[] K = new int[13*NUM_ROUNDS+9];
+		int n = key.length*2;
+		for(int w=0;w<key.length;w++){
+			// u = s*s+A0 and v = s*s+A1 start from the same subblock
+			int a0 = key[w] >>> 16, b0 = a0;
+			int a1 = key[w] & 0xFFFF, b1 = a1;
+			int i = 2*w;
+			for(;i+1<K.length;i+=n){
+				int u0 = TU[a0], v0 = TV[b0];
+				int u1 = TU[a1], v1 = TV[b1];
+				K[i]   = (u0 & 0xFFFF0000) | (v0 & 0xFFFF);
+				K[i+1] = (u1 & 0xFFFF0000) | (v1 & 0xFFFF);
+				a0 = u0 & 0xFFFF;
+				b0 = v0 >>> 16;
+				a1 = u1 & 0xFFFF;
+				b1 = v1 >>> 16;
+			}
+			if( i < K.length ){
+				K[i] = (TU[a0] & 0xFFFF0000) | (TV[b0] & 0xFFFF);
+			}
+		}
+		if( AkelarreMetrics.ENABLED ){
+			AkelarreMetrics.shared().schedule(System.nanoTime() - st);
+		}
+		event.end(this);
+		return K;
+	}
+
+	/**
+	 * The lookup tables, built the first time a TableKeyScheduler is used.
+	 */
+	private static final class Tables {
+		/**
+		 * For u = x*x+A0: the high half of the subkey in the high 16 bits and
+		 * the middle 16 bits of u, the next x, in the low 16 bits.
+		 */
+		static final int[] TU = new int[1 << 16];
+
+		/**
+		 * For v = x*x+A1: the middle 16 bits of v, the next x, in the high 16
+		 * bits and the low half of the subkey in the low 16 bits.
+		 */
+		static final int[] TV = new int[1 << 16];
+
+		static {
+			for( int x=0;x<(1 << 16);x++ ){
+				int u = x*x+A0;
+				int v = x*x+A1;
+				TU[x] = ((u << 24) & 0xFF000000) | ((u >> 8) & 0xFF0000) | ((u >> 8) & 0xFFFF);
+				TV[x] = (((v >> 8) & 0xFFFF) << 16) | ((v << 8) & 0xFF00) | ((v >> 24) & 0xFF);
+			}
+		}
+	}
+}
@@ -0,0 +1,331 @@
+package Benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import Akelarre.Akelarre;
+import Akelarre.KeyScheduler;
+import Akelarre.TableKeyScheduler;
+import Coconut.AkelarreAttacks;
+import Coconut.BacktrackAttack;
+import Coconut.BitAttack;
+import Coconut.BruteforceAttack;
+
+/**
+ * Benchmarks the cipher, the key schedule and the attacks with Harness,
+ * with warmup and repeated measurement rather than one timed run.
+ *
+ * The cipher and key schedule cases run for every combination of rounds
+ * and key size, the attacks for every numBits. The attacks are on one
+ * round, as in AkelarreAttacks and BruteforceAttack.
+ *
+ * Usage: java Benchmarks.AkelarreBenchmarks [options]
+ *   -rounds 1,4     rounds to run the cipher cases with
+ *   -keysize 4,8    key sizes in bytes
+ *   -bits 8         numBits for the attacks
+ *   -wi 3           warmup iterations
+ *   -i 5            measured iterations
+ *   -t 200          iteration time in ms
+ *   -filter regex   only run cases whose name matches
+ *   -fork 1         run each case in a fresh JVM, 0 to run them all here
+ *
+ * As with JMH, each case runs in its own JVM by default, so that the
+ * profile the JIT collected on one case does not slow down the next.
+ */
+public class AkelarreBenchmarks {
+
+	/**
+	 * The number of blocks in a bulk call.
+	 */
+	private static final int BULK_BLOCKS = 1024;
+
+	public static void main(String[] args){
+		int[] rounds = {1, Akelarre.DEFAULT_NUM_ROUNDS};
+		int[] keySizes = {4, Akelarre.DEFAULT_KEY_SIZE};
+		int[] bits = {8};
+		int wi = 3, i = 5, t = 200;
+		String filter = ".*";
+		boolean fork = true;
+
+		for( int a=0;a+1<args.length;a+=2 ){
+			String v = args[a+1];
+			if( args[a].equals("-rounds") ) rounds = ints(v);
+			else if( args[a].equals("-keysize") ) keySizes = ints(v);
+			else if( args[a].equals("-bits") ) bits = ints(v);
+			else if( args[a].equals("-wi") ) wi = Integer.parseInt(v);
+			else if( args[a].equals("-i") ) i = Integer.parseInt(v);
+			else if( args[a].equals("-t") ) t = Integer.parseInt(v);
+			else if( args[a].equals("-filter") ) filter = v;
+			else if( args[a].equals("-fork") ) fork = Integer.parseInt(v) != 0;
+			else throw new IllegalArgumentException("Unknown option " + args[a]);
+		}
+
+		List<String> names = new ArrayList<String>();
+		List<Harness.Case> cases = new ArrayList<Harness.Case>();
+		for( int r : rounds ){
+			for( int ks : keySizes ){
+				cipherCases(r, ks, names, cases);
+			}
+		}
+		rotlCases(names, cases);
+		for( int b : bits ){
+			attackCases(b, names, cases);
+		}
+
+		Harness harness = new Harness(wi, i, t);
+		if( fork ){
+			System.out.println("Warmup " + wi + " x " + t + " ms, measured " + i + " x " + t + " ms, one JVM per case");
+		}
+		for( int c=0;c<cases.size();c++ ){
+			if( !names.get(c).matches(filter) ){
+				continue;
+			}
+			if( fork ){
+				fork(args, names.get(c));
+			}else{
+				System.out.println(harness.measure(names.get(c), cases.get(c)));
+			}
+		}
+	}
+
+	/**
+	 * Runs one case in a new JVM with the same options and JVM arguments,
+	 * and copies its result line here.
+	 */
+	private static void fork(String[] args,String name){
+		List<String> cmd = new ArrayList<String>();
+		cmd.add(ProcessHandle.current().info().command().orElse("java"));
+		cmd.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		cmd.add(AkelarreBenchmarks.class.getName());
+		for( int a=0;a+1<args.length;a+=2 ){
+			if( !args[a].equals("-filter") && !args[a].equals("-fork") ){
+				cmd.add(args[a]);
+				cmd.add(args[a+1]);
+			}
+		}
+		cmd.add("-filter");
+		cmd.add(Pattern.quote(name));
+		cmd.add("-fork");
+		cmd.add("0");
+		try{
+			Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+			BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
+			String line;
+			while( (line = in.readLine()) != null ){
+				if( line.startsWith(name) ){
+					System.out.println(line);
+				}
+			}
+			if( p.waitFor() != 0 ){
+				System.out.println(name + " failed with exit code " + p.exitValue());
+			}
+		}catch( IOException e ){
+			throw new UncheckedIOException(e);
+		}catch( InterruptedException e ){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Adds the block, bulk and key schedule cases.
+	 */
+	private static void cipherCases(int r,int ks,List<String> names,List<Harness.Case> cases){
+		String p = " rounds=" + r + " keySize=" + ks;
+		Random rand = new Random(42);
+		final int[] key = new int[ks/4];
+		for( int j=0;j<key.length;j++ ){
+			key[j] = rand.nextInt();
+		}
+		final Akelarre ake = new Akelarre(r, ks, key);
+		final int[] in = {rand.nextInt(), rand.nextInt(), rand.nextInt(), rand.nextInt()};
+		final int[] out = new int[4];
+		final int[] bulk = new int[4*BULK_BLOCKS];
+		for( int j=0;j<bulk.length;j++ ){
+			bulk[j] = rand.nextInt();
+		}
+
+		names.add("cipher.encryptBlock" + p);
+		cases.add(new Harness.Case(){
+			public long run(){
+				ake.encryptBlock(in, 0, out, 0);
+				in[0]++;
+				return out[0];
+			}
+		});
+		names.add("cipher.decryptBlock" + p);
+		cases.add(new Harness.Case(){
+			public long run(){
+				ake.decryptBlock(in, 0, out, 0);
+				in[0]++;
+				return out[0];
+			}
+		});
+		names.add("cipher.encryptBulk[" + BULK_BLOCKS + "]" + p);
+		cases.add(new Harness.Case(){
+			public long run(){
+				ake.encryptBlocks(bulk, 0, BULK_BLOCKS);
+				return bulk[0];
+			}
+		});
+		names.add("cipher.decryptBulk[" + BULK_BLOCKS + "]" + p);
+		cases.add(new Harness.Case(){
+			public long run(){
+				ake.decryptBlocks(bulk, 0, BULK_BLOCKS);
+				return bulk[0];
+			}
+		});
+
+		final KeyScheduler scheduler = new KeyScheduler(r, ks);
+		final KeyScheduler table = new TableKeyScheduler(r, ks);
+		names.add("schedule" + p);
+		cases.add(new Harness.Case(){
+			public long run(){
+				key[0]++;
+				int[] K = scheduler.schedule(key);
+				return K[K.length-1];
+			}
+		});
+		names.add("schedule.table" + p);
+		cases.add(new Harness.Case(){
+			public long run(){
+				key[0]++;
+				int[] K = table.schedule(key);
+				return K[K.length-1];
+			}
+		});
+		names.add("schedule.decryption" + p);
+		cases.add(new Harness.Case(){
+			public long run(){
+				key[0]++;
+				int[] D = scheduler.createDecryptionSubkeys(scheduler.schedule(key));
+				return D[D.length-1];
+			}
+		});
+	}
+
+	/**
+	 * Adds the 128 bit rotation cases.
+	 */
+	private static void rotlCases(List<String> names,List<Harness.Case> cases){
+		final int[] state = {0x01234567, 0x89ABCDEF, 0x76543210, 0xFEDCBA98};
+		final long[] hl = {0x0123456789ABCDEFL, 0x76543210FEDCBA98L};
+		final int[] n = {0};
+
+		names.add("rotl128.words");
+		cases.add(new Harness.Case(){
+			public long run(){
+				Akelarre.rotl128(state, n[0]++ & 127);
+				return state[0];
+			}
+		});
+		names.add("rotl128.longs");
+		cases.add(new Harness.Case(){
+			public long run(){
+				int a = n[0]++ & 127;
+				long h = Akelarre.rotl128Hi(hl[0], hl[1], a);
+				hl[1] = Akelarre.rotl128Lo(hl[0], hl[1], a);
+				hl[0] = h;
+				return h;
+			}
+		});
+	}
+
+	/**
+	 * Adds the attack cases for numBits bits.
+	 */
+	private static void attackCases(final int numBits,List<String> names,List<Harness.Case> cases){
+		String p = " numBits=" + numBits;
+		Random rand = new Random(42);
+
+		// The key search looks for the last key it tries.
+		final int[] pt = {rand.nextInt(), rand.nextInt(), rand.nextInt(), rand.nextInt()};
+		final int[] ct = new Akelarre(1, 4, new int[]{(1 << numBits) - 2}).encrypt(pt);
+
+		// The subkey attacks get five pairs under one key, as in
+		// AkelarreAttacks.main.
+		Akelarre ake = new Akelarre(1, 8, new int[]{rand.nextInt(), rand.nextInt()});
+		final int[][] X = new int[BitAttack.NUM_PLAINTEXTS][];
+		final int[][] Y = new int[BitAttack.NUM_PLAINTEXTS][];
+		for( int j=0;j<X.length;j++ ){
+			X[j] = new int[]{rand.nextInt(), rand.nextInt(), rand.nextInt(), rand.nextInt()};
+			Y[j] = ake.encrypt(X[j]);
+		}
+
+		names.add("attack.bruteforce" + p);
+		cases.add(new Harness.Case(){
+			public long run(){
+				return found(new BruteforceAttack(pt, ct, numBits).attack());
+			}
+		});
+		names.add("attack.bruteforce.batch" + p);
+		cases.add(new Harness.Case(){
+			public long run(){
+				return found(new BruteforceAttack(pt, ct, numBits).batchAttack());
+			}
+		});
+		names.add("attack.bruteforce.bitsliced" + p);
+		cases.add(new Harness.Case(){
+			public long run(){
+				return found(new BruteforceAttack(pt, ct, numBits).bitslicedAttack());
+			}
+		});
+		names.add("attack.bruteforce.parallel" + p);
+		cases.add(new Harness.Case(){
+			public long run(){
+				return found(new BruteforceAttack(pt, ct, numBits).parallelAttack());
+			}
+		});
+		names.add("attack.bit" + p);
+		cases.add(new Harness.Case(){
+			public long run(){
+				return new BitAttack(X, Y).attack(numBits).size();
+			}
+		});
+		names.add("attack.backtrack" + p);
+		cases.add(new Harness.Case(){
+			public long run(){
+				return new BacktrackAttack(X, Y, numBits).solve() == null ? 0 : 1;
+			}
+		});
+		names.add("attack.backtrack.parallel" + p);
+		cases.add(new Harness.Case(){
+			public long run(){
+				return new BacktrackAttack(X, Y, numBits).parallelSolve() == null ? 0 : 1;
+			}
+		});
+		names.add("attack.bruteforceSubkey" + p);
+		cases.add(new Harness.Case(){
+			public long run(){
+				return new AkelarreAttacks(X, Y).bruteforceSubkeyAttack(numBits).size();
+			}
+		});
+		names.add("attack.bitBruteforceSubkey" + p);
+		cases.add(new Harness.Case(){
+			public long run(){
+				return new AkelarreAttacks(X, Y).bitBruteforceSubkeyAttack(numBits).size();
+			}
+		});
+	}
+
+	private static long found(int[] a){
+		return a == null ? -1 : a[0];
+	}
+
+	private static int[] ints(String list){
+		String[] parts = list.split(",");
+		int[] v = new int[parts.length];
+		for( int j=0;j<parts.length;j++ ){
+			v[j] = Integer.parseInt(parts[j].trim());
+		}
+		return v;
+	}
+}
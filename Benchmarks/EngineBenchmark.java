@@ -0,0 +1,66 @@
+package Benchmarks;
+
+import java.util.Random;
+
+import Akelarre.Akelarre;
+import Akelarre.BlockEngine;
+import Akelarre.BlockEngines;
+import Akelarre.KeyScheduler;
+
+/**
+ * Compares the throughput of the block engines on the same run of blocks,
+ * measured with Harness, with the same warmup and iterations as the cases
+ * of AkelarreBenchmarks, so that the numbers can be set side by side.
+ *
+ * Usage: java Benchmarks.EngineBenchmark [rounds] [blocks] [engine...]
+ *
+ * Build Vector/ and run with --add-modules jdk.incubator.vector to include
+ * the vector engine.
+ */
+public class EngineBenchmark {
+
+	public static void main(String[] args){
+		int rounds = Akelarre.DEFAULT_NUM_ROUNDS;
+		int blocks = 1 << 16;
+		String[] engines = {"scalar","interleaved","vector"};
+
+		if( args.length >= 1 ) rounds = Integer.parseInt(args[0]);
+		if( args.length >= 2 ) blocks = Integer.parseInt(args[1]);
+		if( args.length >= 3 ){
+			engines = new String[args.length-2];
+			System.arraycopy(args, 2, engines, 0, engines.length);
+		}
+
+		Random rand = new Random(42);
+		int[] k = new KeyScheduler(rounds,Akelarre.DEFAULT_KEY_SIZE).schedule(new int[]{rand.nextInt(),rand.nextInt()});
+		int[] words = new int[4*blocks];
+		for( int i=0;i<words.length;i++ ){
+			words[i] = rand.nextInt();
+		}
+
+		Harness harness = new Harness(3, 5, 200);
+		System.out.println("Rounds: " + rounds + ", blocks per run: " + blocks);
+		for( String name : engines ){
+			BlockEngine engine = BlockEngines.select(name);
+			for( boolean rotate : new boolean[]{false,true} ){
+				Harness.Result r = harness.measure(engine.getName() + " rotate=" + rotate,
+						run(engine, words, k, rounds, rotate));
+				double mbs = r.opsPerSecond * blocks * Akelarre.BLOCK_SIZE / (1 << 20);
+				System.out.printf("%-24s %8.1f MB/s +- %5.1f%% %8.1f ns/block%n",
+						r.name, mbs, 100 * r.error / r.opsPerSecond, r.nanosPerOp() / blocks);
+			}
+		}
+	}
+
+	/**
+	 * Returns a case that runs the engine over all the blocks once.
+	 */
+	private static Harness.Case run(final BlockEngine engine,final int[] words,final int[] k,final int rounds,final boolean rotate){
+		return new Harness.Case(){
+			public long run(){
+				engine.crypt(words, 0, words.length/4, k, rounds, rotate);
+				return words[0];
+			}
+		};
+	}
+}
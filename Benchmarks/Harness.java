@@ -0,0 +1,129 @@
+package Benchmarks;
+
+/**
+ * A small benchmark harness in the manner of JMH's throughput mode. A case
+ * is first run for a number of warmup iterations, so that the numbers are
+ * for compiled code, then for a number of measured iterations. Each
+ * iteration calls the case back to back for a fixed time and counts the
+ * calls. The result is the mean and standard deviation of the calls per
+ * second over the measured iterations.
+ *
+ * Every call returns a value, which is folded into a volatile sink so the
+ * JIT cannot drop the work.
+ */
+public final class Harness {
+
+	/**
+	 * A benchmarked operation.
+	 */
+	public interface Case {
+		/**
+		 * Runs the operation once.
+		 *
+		 * @return Any value that depends on the work done
+		 */
+		long run();
+	}
+
+	/**
+	 * The outcome of measuring one case.
+	 */
+	public static final class Result {
+		public final String name;
+		public final double opsPerSecond;
+		public final double error;
+		public final long ops;
+
+		Result(String name,double opsPerSecond,double error,long ops){
+			this.name = name;
+			this.opsPerSecond = opsPerSecond;
+			this.error = error;
+			this.ops = ops;
+		}
+
+		/**
+		 * @return The mean time of one operation in nanoseconds.
+		 */
+		public double nanosPerOp(){
+			return 1e9 / opsPerSecond;
+		}
+
+		@Override
+		public String toString(){
+			return String.format("%-48s %14.1f +- %5.1f%% ops/s %14.1f ns/op",
+					name, opsPerSecond, 100 * error / opsPerSecond, nanosPerOp());
+		}
+	}
+
+	/**
+	 * Keeps results alive.
+	 */
+	private static volatile long sink;
+
+	public final int warmupIterations;
+	public final int iterations;
+	public final long iterationNanos;
+
+	/**
+	 * @param warmupIterations	Iterations run before measuring
+	 * @param iterations	Iterations measured
+	 * @param iterationMillis	The length of each iteration
+	 */
+	public Harness(int warmupIterations,int iterations,long iterationMillis){
+		if( iterations < 1 || warmupIterations < 0 || iterationMillis < 1 ){
+			throw new IllegalArgumentException("Need at least one measured iteration of at least 1 ms.");
+		}
+		this.warmupIterations = warmupIterations;
+		this.iterations = iterations;
+		this.iterationNanos = iterationMillis * 1000000L;
+	}
+
+	/**
+	 * Measures a case.
+	 *
+	 * @param name	The name reported
+	 * @param c	The case
+	 * @return The result
+	 */
+	public Result measure(String name,Case c){
+		for( int i=0;i<warmupIterations;i++ ){
+			iteration(c);
+		}
+		double[] rates = new double[iterations];
+		long total = 0;
+		for( int i=0;i<iterations;i++ ){
+			long st = System.nanoTime();
+			long ops = iteration(c);
+			rates[i] = ops * 1e9 / (System.nanoTime() - st);
+			total += ops;
+		}
+
+		double mean = 0;
+		for( double r : rates ){
+			mean += r;
+		}
+		mean /= rates.length;
+		double var = 0;
+		for( double r : rates ){
+			var += (r - mean) * (r - mean);
+		}
+		double sd = rates.length > 1 ? Math.sqrt(var / (rates.length - 1)) : 0;
+		return new Result(name, mean, sd, total);
+	}
+
+	/**
+	 * Calls the case until the iteration time is up.
+	 *
+	 * @return The number of calls
+	 */
+	private long iteration(Case c){
+		long end = System.nanoTime() + iterationNanos;
+		long ops = 0, acc = 0;
+		do{
+			acc += c.run();
+			ops++;
+		}while( System.nanoTime() < end );
+		sink += acc;
+		return ops;
+	}
+}
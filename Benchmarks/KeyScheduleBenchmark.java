@@ -0,0 +1,79 @@
+package Benchmarks;
+
+import java.util.Random;
+
+import Akelarre.Akelarre;
+import Akelarre.IncrementalKeyScheduler;
+import Akelarre.KeyScheduler;
+import Akelarre.TableKeyScheduler;
+
+/**
+ * Compares the key schedulers on the same run of keys: the original
+ * scheduler, the table driven one, and the incremental scheduler stepping
+ * through consecutive keys the way a brute force search does. Each is
+ * measured with Harness, one key per operation, with the same warmup and
+ * iterations as the cases of AkelarreBenchmarks.
+ *
+ * Usage: java Benchmarks.KeyScheduleBenchmark [rounds] [key size] [keys]
+ */
+public class KeyScheduleBenchmark {
+
+	public static void main(String[] args){
+		int rounds = Akelarre.DEFAULT_NUM_ROUNDS;
+		int keySize = Akelarre.DEFAULT_KEY_SIZE;
+		int count = 1 << 16;
+
+		if( args.length >= 1 ) rounds = Integer.parseInt(args[0]);
+		if( args.length >= 2 ) keySize = Integer.parseInt(args[1]);
+		if( args.length >= 3 ) count = Integer.parseInt(args[2]);
+
+		Random rand = new Random(42);
+		int[][] keys = new int[count][keySize/4];
+		for( int[] key : keys ){
+			for( int i=0;i<key.length;i++ ){
+				key[i] = rand.nextInt();
+			}
+		}
+		int[][] sequential = new int[count][keySize/4];
+		for( int i=0;i<count;i++ ){
+			sequential[i][sequential[i].length-1] = i;
+		}
+
+		Harness harness = new Harness(3, 5, 200);
+		System.out.println("Rounds: " + rounds + ", key size: " + keySize + ", keys cycled through: " + count);
+		System.out.println(harness.measure("original", schedule(new KeyScheduler(rounds,keySize), keys)));
+		System.out.println(harness.measure("table", schedule(new TableKeyScheduler(rounds,keySize), keys)));
+		System.out.println(harness.measure("original-seq", schedule(new KeyScheduler(rounds,keySize), sequential)));
+		System.out.println(harness.measure("incremental", schedule(new IncrementalKeyScheduler(rounds,keySize), sequential)));
+	}
+
+	/**
+	 * Returns a case that schedules the next of the keys, going round them.
+	 */
+	private static Harness.Case schedule(final KeyScheduler scheduler,final int[][] keys){
+		return new Harness.Case(){
+			private int i;
+
+			public long run(){
+				int[] K = scheduler.schedule(keys[i]);
+				if( ++i == keys.length ) i = 0;
+				return K[K.length-1];
+			}
+		};
+	}
+
+	/**
+	 * Returns a case that schedules the next of the keys, going round them.
+	 */
+	private static Harness.Case schedule(final IncrementalKeyScheduler scheduler,final int[][] keys){
+		return new Harness.Case(){
+			private int i;
+
+			public long run(){
+				int[] K = scheduler.schedule(keys[i]);
+				if( ++i == keys.length ) i = 0;
+				return K[K.length-1];
+			}
+		};
+	}
+}
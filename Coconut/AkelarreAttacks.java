@@ -52,8 +52,8 @@
 package Coconut;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.Random;
+import java.util.function.Consumer;
 
 import Akelarre.Akelarre;
 import Coconut.BacktrackAttack.Choice;
@@ -154,7 +154,7 @@ public class AkelarreAttacks {
 	public ArrayList<int[]> bruteforceKeyAttack(){return bruteforceKeyAttack(8);}
 	public ArrayList<int[]> bruteforceKeyAttack(int numBits){
 		ArrayList<int[]> values = new ArrayList<int[]>();
-		int[] a = (new BruteforceAttack(X[0],Y[0],numBits)).attack();
+		int[] a = (new BruteforceAttack(X[0],Y[0],numBits)).bitslicedAttack();
 
 		if( a != null ){
 			values.add(a);
@@ -218,59 +218,100 @@ public class AkelarreAttacks {
 	 * appropriate equation. This can be extended to a full-length plaintext
 	 * (32 bits), but it appears as though the number of possible solutions
 	 * that satisfy the equation is enormous, in many situations.
+	 *
+	 * The candidates of each level are packed into longs in a
+	 * CandidateFrontier that spills to a temporary file. The level being
+	 * read and the one being written each get half the budget, so at most
+	 * budget candidates are on the heap at once and a long run is bounded by
+	 * the disk rather than the heap. A parent only gains a bit above those
+	 * it has, so the children of different parents never meet and no set is
+	 * needed to keep them apart.
+	 *
+	 * The forms returning a list keep every final candidate as an int[3],
+	 * some 40 bytes each; a full width run should hand them to a Consumer.
 	 */
 	public ArrayList<int[]> bitBruteforceSubkeyAttack(){return bitBruteforceSubkeyAttack(8);}
-	public ArrayList<int[]> bitBruteforceSubkeyAttack(int numBits){
-		ArrayList<int[]> values = new ArrayList<int[]>();
-		values.add(new int[3]);
-		for(int shift=0,mask=1;shift<numBits;shift++,mask|=(1 << shift)){
-			for( int x=0;x<X.length-1;x++ ){
-				int[] xl = X[x],xr = X[x+1];
-				int[] yl = Y[x],yr = Y[x+1];
-
-				ArrayList<int[]> curVals = new ArrayList<int[]>();
-				HashSet<String> set = new HashSet<String>();
-				if( x == 0 ){
-					for(int[] val : values){
-						int a = val[0],e=val[1];
-						for(int i=0;i<4;i++){
-							switch(i){
-								case 0:
-									break;
-								case 1:
-									e |= (1 << shift);
-									break;
-								case 2:
-									a |= (1 << shift);
-									break;
-								case 3:
-									a |= (1 << shift);
-									e |= (1 << shift);
-									break;
-							}
-							if( !set.contains(a+"|"+e) && eq423( a, e, xl, xr, yl, yr, mask ) ){
-								curVals.add(new int[]{a,e,0});
-								set.add(a+"|"+e);
-							}
-						}
-					}
-				}else{
-					for(int[] val : values ){
-						if( !set.contains(val[0]+"|"+val[1]) && eq423(val[0],val[1],xl,xr,yl,yr,mask) ){
-							curVals.add(new int[]{val[0],val[1],0});
-							set.add(val[0]+"|"+val[1]);
-						}
+	public ArrayList<int[]> bitBruteforceSubkeyAttack(int numBits){return bitBruteforceSubkeyAttack(numBits,CandidateFrontier.DEFAULT_BUDGET);}
+	public ArrayList<int[]> bitBruteforceSubkeyAttack(int numBits,int budget){
+		final ArrayList<int[]> vals = new ArrayList<int[]>();
+		bitBruteforceSubkeyAttack(numBits,budget,new Consumer<int[]>(){
+			public void accept(int[] val){
+				vals.add(val);
+			}
+		});
+		return vals;
+	}
+
+	/*
+	 * Runs the attack and hands each final candidate, {a, e, g xor c}, to
+	 * action in turn instead of keeping them. Returns the number of them.
+	 */
+	public long bitBruteforceSubkeyAttack(int numBits,int budget,Consumer<int[]> action){
+		if( budget < 2 ){
+			throw new IllegalArgumentException("Budget must hold at least two candidates.");
+		}
+		budget /= 2;
+		CandidateFrontier values = new CandidateFrontier(budget);
+		try{
+			values.add(Candidates.pack(0, 0));
+			for(int shift=0,mask=1;shift<numBits;shift++,mask|=(1 << shift)){
+				AttackPhaseEvent event = AttackPhaseEvent.begin("bitBruteforceSubkeyAttack", shift);
+				long tested = 0;
+				int bit = 1 << shift;
+				for( int x=0;x<X.length-1;x++ ){
+					int[] xl = X[x],xr = X[x+1];
+					int[] yl = Y[x],yr = Y[x+1];
+
+					CandidateFrontier curVals = new CandidateFrontier(budget);
+					tested += x == 0 ? 4L*values.size() : values.size();
+					try{
+						expand(values, curVals, x == 0, bit, xl, xr, yl, yr, mask);
+					}catch( RuntimeException ex ){
+						curVals.close();
+						throw ex;
 					}
+					values.close();
+					values = curVals;
 				}
-				values = new ArrayList<int[]>(curVals);
+				event.end(tested, values.size());
 			}
-		}
 
-		for(int[] val : values ){
-			val[2] = calcGXORC(val[0],val[1]);
+			CandidateFrontier.Cursor c = values.cursor();
+			while( c.hasNext() ){
+				long val = c.next();
+				int a = Candidates.first(val),e = Candidates.second(val);
+				action.accept(new int[]{a,e,calcGXORC(a,e)});
+			}
+			return values.size();
+		}finally{
+			values.close();
 		}
+	}
 
-		return values;
+	/*
+	 * Adds to next the candidates of values that satisfy equation 4.23 for
+	 * one pair, first trying bit set in each of them.
+	 */
+	private void expand(CandidateFrontier values,CandidateFrontier next,boolean first,int bit,int[] xl,int[] xr,int[] yl,int[] yr,int mask){
+		CandidateFrontier.Cursor c = values.cursor();
+		while( c.hasNext() ){
+			long val = c.next();
+			int a = Candidates.first(val),e = Candidates.second(val);
+			if( first ){
+				// the bit of e stays set for the third and fourth tries, which are the same
+				if( eq423( a, e, xl, xr, yl, yr, mask ) ){
+					next.add(val);
+				}
+				if( eq423( a, e|bit, xl, xr, yl, yr, mask ) ){
+					next.add(Candidates.pack(a, e|bit));
+				}
+				if( eq423( a|bit, e|bit, xl, xr, yl, yr, mask ) ){
+					next.add(Candidates.pack(a|bit, e|bit));
+				}
+			}else if( eq423(a,e,xl,xr,yl,yr,mask) ){
+				next.add(val);
+			}
+		}
 	}
 
 	/*
@@ -0,0 +1,61 @@
+package Coconut;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/*
+ * A Java Flight Recorder event for one phase of an attack: a bit level of
+ * BitAttack.attack or AkelarreAttacks.bitBruteforceSubkeyAttack, or a
+ * depth of BacktrackAttack.solve. It shows up under Akelarre next to the
+ * events of the cipher itself, see Akelarre.AkelarreEvents.
+ *
+ * With the event disabled shouldCommit() is false and the JIT removes the
+ * event, so the attacks carry it at no cost.
+ */
+@Name("Akelarre.AttackPhase")
+@Label("Attack Phase")
+@Category("Akelarre")
+@Description("A bit level or search depth of a subkey attack")
+@StackTrace(false)
+public class AttackPhaseEvent extends Event {
+	@Label("Attack")
+	public String attack;
+
+	@Label("Level")
+	@Description("The bit level or search depth")
+	public int level;
+
+	@Label("Tested")
+	@Description("The candidates tested at this level")
+	public long tested;
+
+	@Label("Candidates")
+	@Description("The candidates left after this level")
+	public long candidates;
+
+	/*
+	 * Returns a begun event for level of attack.
+	 */
+	public static AttackPhaseEvent begin(String attack,int level){
+		AttackPhaseEvent e = new AttackPhaseEvent();
+		e.attack = attack;
+		e.level = level;
+		e.begin();
+		return e;
+	}
+
+	/*
+	 * Commits the event if the recording wants it.
+	 */
+	public void end(long tested,long candidates){
+		if( shouldCommit() ){
+			this.tested = tested;
+			this.candidates = candidates;
+			commit();
+		}
+	}
+}
@@ -1,7 +1,16 @@
 package Coconut;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.Random;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import Akelarre.Akelarre;
 
@@ -12,6 +21,11 @@ public class BacktrackAttack {
 	public int[][] X,Y;
 	private int numBits = 31;
 
+	/*
+	 * The depth down to which parallelSolve() hands subtrees out as tasks.
+	 */
+	static final int SPLIT_DEPTH = 6;
+
 	/**
 	 * Shift the input right by a specified amount then & the input with 1.
 	 */
@@ -23,8 +37,13 @@ public class BacktrackAttack {
 	 * A test function that includes carry bits.
 	 */
 	public boolean testWithCarry(Choice choice,int[] xl,int[] xr,int[] yl,int[] yr){
-		int[] set = choice.set;
-		int s/*hift*/ = choice.shift;
+		return testWithCarry(choice.shift,choice.set[0],choice.set[1],xl,xr,yl,yr);
+	}
+
+	/*
+	 * The same test on the shift and the set of a choice.
+	 */
+	static boolean testWithCarry(int s/*hift*/,int a,int e,int[] xl,int[] xr,int[] yl,int[] yr){
 		if( s < 32 ){
 			if( s == 0 ){
 				int yl00 = yl[0]&1;
@@ -37,8 +56,8 @@ public class BacktrackAttack {
 				int xr00 = xr[0]&1;
 				int xr20 = xr[2]&1;
 
-				int a0  = set[0]&1;
-				int e0  = (-set[1])&1;
+				int a0  = a&1;
+				int e0  = (-e)&1;
 
 				return ((yl00^e0^xl00^a0^xl20^yl20) == (yr00^e0^xr00^a0^xr20^yr20));
 			}else{
@@ -56,10 +75,10 @@ public class BacktrackAttack {
 				int yr00 = sA1(yr[0],s-1);
 				int xr00 = sA1(xr[0],s-1);
 
-				int ai = sA1(set[0],s);
-				int a0 = sA1(set[0],s-1);
-				int ei = sA1(-set[1],s);
-				int e0 = sA1(-set[1],s-1);
+				int ai = sA1(a,s);
+				int a0 = sA1(a,s-1);
+				int ei = sA1(-e,s);
+				int e0 = sA1(-e,s-1);
 
 
 				return (yl0i^ei^xl0i^ai^xl2i^yl2i^(yl00*e0)^(xl00*a0)) == (yr0i^ei^xr0i^ai^xr2i^yr2i^(yr00&e0)^(xr00&a0));
@@ -128,10 +147,219 @@ public class BacktrackAttack {
 	}
 
 	/*
-	 * Solve with an empty choice
+	 * Solve with an empty choice. This runs the search of solve(Choice) in
+	 * a BacktrackSearch, which keeps its path in arrays rather than on the
+	 * call stack and allocates nothing per node, and finds the same choice.
+	 * When AttackPhaseEvents are recorded, the search counts the extensions
+	 * at each depth and one event per depth is emitted once it is done,
+	 * rather than one per node.
 	 */
 	public Choice solve(){
-		return solve(new Choice());
+		if( numBits < -1 ){
+			return null;
+		}
+		BacktrackSearch search = new BacktrackSearch(new PairPlanes(X,Y),numBits,0,0,0,new AttackPhaseEvent().isEnabled());
+		Choice ch = search.advance() ? new Choice(numBits,new int[]{search.a(),search.e()}) : null;
+		emit(search.tested, search.accepted);
+		return ch;
+	}
+
+	/*
+	 * Runs the search of solve() on the common pool.
+	 */
+	public Choice parallelSolve(){
+		return parallelSolve(ForkJoinPool.commonPool());
+	}
+
+	/*
+	 * Runs the search of solve() on pool. The subtrees down to SPLIT_DEPTH
+	 * are tasks that idle workers steal, each searched by a BacktrackSearch
+	 * of its own. Subtrees are ranked left to right, and a solution lowers
+	 * a bound that stops every subtree to its right, while those to its
+	 * left run on; the leftmost solution is the one returned, the choice
+	 * solve() finds.
+	 */
+	public Choice parallelSolve(ForkJoinPool pool){
+		if( numBits < -1 ){
+			return null;
+		}
+		boolean count = new AttackPhaseEvent().isEnabled();
+		Shared shared = new Shared(new PairPlanes(X,Y),numBits,Math.min(SPLIT_DEPTH, numBits+1),count);
+		int[] set = pool.invoke(new Subtree(shared,0,0,0,0));
+		emit(shared.tested, shared.accepted);
+		return set == null ? null : new Choice(numBits,set);
+	}
+
+	/*
+	 * Returns every solution, in the order the search meets them, so the
+	 * first is the choice solve() finds. The search runs only as far as the
+	 * stream is consumed, and a parallel stream splits it by subtrees.
+	 *
+	 * Sample Usage:
+	 * List<Choice> first = attack.solutions().limit(10).collect(Collectors.toList());
+	 */
+	public Stream<Choice> solutions(){
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	/*
+	 * Returns every solution, as solutions() does.
+	 */
+	public Iterator<Choice> iterator(){
+		return Spliterators.iterator(spliterator());
+	}
+
+	/*
+	 * Returns a spliterator over every solution, as solutions() does.
+	 */
+	public Spliterator<Choice> spliterator(){
+		if( numBits < -1 ){
+			return Spliterators.emptySpliterator();
+		}
+		return new Solutions(new BacktrackSearch(new PairPlanes(X,Y),numBits,0,0,0,false));
+	}
+
+	/*
+	 * The solutions under the part of the tree a BacktrackSearch has left.
+	 */
+	private class Solutions implements Spliterator<Choice> {
+		private final BacktrackSearch search;
+
+		Solutions(BacktrackSearch search){
+			this.search = search;
+		}
+
+		public boolean tryAdvance(Consumer<? super Choice> action){
+			if( !search.advance() ){
+				return false;
+			}
+			action.accept(new Choice(numBits,new int[]{search.a(),search.e()}));
+			return true;
+		}
+
+		public Spliterator<Choice> trySplit(){
+			BacktrackSearch prefix = search.trySplit();
+			return prefix == null ? null : new Solutions(prefix);
+		}
+
+		public long estimateSize(){
+			return Long.MAX_VALUE;
+		}
+
+		public int characteristics(){
+			return ORDERED | DISTINCT | NONNULL | IMMUTABLE;
+		}
+	}
+
+	/*
+	 * Emits one AttackPhaseEvent per depth searched.
+	 */
+	private static void emit(long[] tested,long[] accepted){
+		if( tested == null ){
+			return;
+		}
+		for( int d=0;d<tested.length;d++ ){
+			if( tested[d] > 0 ){
+				AttackPhaseEvent.begin("BacktrackAttack", d).end(tested[d], accepted[d]);
+			}
+		}
+	}
+
+	/*
+	 * What the tasks of one parallelSolve() share: the pairs, the depth
+	 * down to which they fork, the rank of the leftmost solution so far, or
+	 * Long.MAX_VALUE, and the extensions counted, or null.
+	 */
+	private static final class Shared {
+		final PairPlanes planes;
+		final int numBits, split;
+		final AtomicLong best = new AtomicLong(Long.MAX_VALUE);
+		final long[] tested, accepted;
+
+		Shared(PairPlanes planes,int numBits,int split,boolean count){
+			this.planes = planes;
+			this.numBits = numBits;
+			this.split = split;
+			this.tested = count ? new long[numBits+1] : null;
+			this.accepted = count ? new long[numBits+1] : null;
+		}
+
+		synchronized void count(BacktrackSearch search){
+			for( int d=0;d<tested.length;d++ ){
+				tested[d] += search.tested[d];
+				accepted[d] += search.accepted[d];
+			}
+		}
+	}
+
+	/*
+	 * A subtree of parallelSolve(), with the lowest rank of a subtree at the
+	 * split depth under it. Above the split depth it forks a task per child,
+	 * at it the subtree is searched in place. The result is the set of the
+	 * leftmost solution, or null.
+	 */
+	private static final class Subtree extends RecursiveTask<int[]> {
+		private static final long serialVersionUID = 1L;
+
+		private final Shared shared;
+		private final int depth, a, e;
+		private final long rank;
+
+		Subtree(Shared shared,int depth,int a,int e,long rank){
+			this.shared = shared;
+			this.depth = depth;
+			this.a = a;
+			this.e = e;
+			this.rank = rank;
+		}
+
+		protected int[] compute(){
+			AtomicLong best = shared.best;
+			if( best.get() < rank ){
+				return null;
+			}
+			BacktrackSearch search = new BacktrackSearch(shared.planes,shared.numBits,depth,a,e,shared.tested != null);
+			try{
+				if( depth < shared.split ){
+					return fork(search.rootChildren());
+				}
+				search.bound(best, rank);
+				if( !search.advance() ){
+					return null;
+				}
+				long b;
+				while( rank < (b = best.get()) && !best.compareAndSet(b, rank) );
+				return new int[]{search.a(),search.e()};
+			}finally{
+				if( shared.tested != null ){
+					shared.count(search);
+				}
+			}
+		}
+
+		/*
+		 * Searches the children in m as tasks and returns the leftmost
+		 * solution among them.
+		 */
+		private int[] fork(int m){
+			ArrayList<Subtree> children = new ArrayList<Subtree>(4);
+			int bit = 1 << depth;
+			long width = 1L << 2*(shared.split - depth - 1);
+			for( int l=0;l<4;l++ ){
+				if( (m & (1 << l)) != 0 ){
+					children.add(new Subtree(shared,depth+1,(l & 2) != 0 ? a | bit : a,(l & 1) != 0 ? e | bit : e,
+							rank + l*width));
+				}
+			}
+			invokeAll(children);
+			for( Subtree t : children ){
+				int[] set = t.join();
+				if( set != null ){
+					return set;
+				}
+			}
+			return null;
+		}
 	}
 
 	/*
@@ -179,6 +407,7 @@ public class BacktrackAttack {
 			for(int i=0;i<X.length-1;i++){
 				if( !testWithCarry(ch,X[i],Y[i],X[i+1],Y[i+1]) ){
 					works = false;
+					break;
 				}
 			}
 
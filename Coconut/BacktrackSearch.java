@@ -0,0 +1,223 @@
+package Coconut;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * The search of BacktrackAttack.solve(Choice) without recursion or
+ * objects. The path from the root of the subtree being searched down to
+ * the current node is kept in arrays indexed by depth: the a and e chosen
+ * so far, and a mask of the children of each node, in the order choices()
+ * gives them, not yet visited. A node at depth d has shift d-1, so the
+ * solutions lie at depth numBits+1.
+ *
+ * A node is expanded by testing its four children at once, as choices()
+ * does, so the extensions tested and accepted at each depth come out the
+ * same; the pairs are tested through PairPlanes. Nothing is allocated once
+ * the search is built.
+ *
+ * advance() walks the subtree depth first and stops at each solution in
+ * turn, leftmost first, so the first one is the Choice solve() returns.
+ * trySplit() cuts the part still to come in two, for a Spliterator.
+ */
+final class BacktrackSearch {
+	private final PairPlanes planes;
+	private final int goal;
+
+	/*
+	 * The path, from depth floor to depth.
+	 */
+	private final int[] a, e, left;
+	private int floor, depth;
+
+	/*
+	 * Whether the root is itself a solution not yet returned.
+	 */
+	private boolean pending;
+
+	/*
+	 * The extensions tested and accepted at each shift, or null.
+	 */
+	final long[] tested, accepted;
+
+	/*
+	 * When bound is set the search gives up once bound drops below rank.
+	 */
+	private AtomicLong bound;
+	private long rank;
+	private int steps;
+
+	/*
+	 * Constructs a search of the subtree under the node at depth with the
+	 * given a and e.
+	 */
+	BacktrackSearch(PairPlanes planes,int numBits,int depth,int a,int e,boolean count){
+		this.planes = planes;
+		this.goal = numBits + 1;
+		this.a = new int[goal + 1];
+		this.e = new int[goal + 1];
+		this.left = new int[goal + 1];
+		this.tested = count ? new long[goal] : null;
+		this.accepted = count ? new long[goal] : null;
+		this.floor = this.depth = depth;
+		this.a[depth] = a;
+		this.e[depth] = e;
+		if( depth == goal ){
+			pending = true;
+		}else{
+			expand(depth);
+		}
+	}
+
+	/*
+	 * Constructs a copy of search, which does not count.
+	 */
+	private BacktrackSearch(BacktrackSearch search){
+		this.planes = search.planes;
+		this.goal = search.goal;
+		this.a = search.a.clone();
+		this.e = search.e.clone();
+		this.left = search.left.clone();
+		this.floor = search.floor;
+		this.depth = search.depth;
+		this.pending = search.pending;
+		this.tested = this.accepted = null;
+	}
+
+	/*
+	 * Gives up the search once bound drops below rank, checked every few
+	 * hundred nodes.
+	 */
+	void bound(AtomicLong bound,long rank){
+		this.bound = bound;
+		this.rank = rank;
+	}
+
+	/*
+	 * Returns the children of the root not yet visited, bit l for the l-th
+	 * choice.
+	 */
+	int rootChildren(){
+		return left[floor];
+	}
+
+	/*
+	 * Moves to the next solution, returning false when there are no more or
+	 * the bound has passed the rank.
+	 */
+	boolean advance(){
+		if( pending ){
+			pending = false;
+			return true;
+		}
+		int d = depth;
+		if( d == goal ){
+			if( d == floor ){
+				return false;
+			}
+			d--;
+		}
+		while( d >= floor ){
+			if( bound != null && (++steps & 0xFF) == 0 && bound.get() < rank ){
+				left[floor] = 0;
+				depth = floor;
+				return false;
+			}
+			int m = left[d];
+			if( m == 0 ){
+				d--;
+				continue;
+			}
+			left[d] = m & (m - 1);
+			int l = Integer.numberOfTrailingZeros(m), bit = 1 << d;
+			a[d+1] = (l & 2) != 0 ? a[d] | bit : a[d];
+			e[d+1] = (l & 1) != 0 ? e[d] | bit : e[d];
+			d++;
+			if( d == goal ){
+				depth = d;
+				return true;
+			}
+			expand(d);
+		}
+		depth = floor;
+		return false;
+	}
+
+	/*
+	 * Hands the first part of the solutions still to come to a new search
+	 * and keeps the rest, or returns null when they cannot be split.
+	 *
+	 * Under way, the search hands over its path and keeps the children left
+	 * at the shallowest node that has any, which becomes its root. Not yet
+	 * started, it first moves its root down while there is only one child
+	 * and then hands over the lower half of the children.
+	 */
+	BacktrackSearch trySplit(){
+		if( pending ){
+			return null;
+		}
+		if( depth > floor ){
+			for( int k=floor;k<depth;k++ ){
+				if( left[k] != 0 ){
+					BacktrackSearch prefix = new BacktrackSearch(this);
+					prefix.left[k] = 0;
+					floor = depth = k;
+					return prefix;
+				}
+			}
+			return null;
+		}
+		while( Integer.bitCount(left[floor]) == 1 && floor + 1 < goal ){
+			int m = left[floor], l = Integer.numberOfTrailingZeros(m), bit = 1 << floor;
+			left[floor] = 0;
+			a[floor+1] = (l & 2) != 0 ? a[floor] | bit : a[floor];
+			e[floor+1] = (l & 1) != 0 ? e[floor] | bit : e[floor];
+			depth = ++floor;
+			expand(floor);
+		}
+		int m = left[floor];
+		if( Integer.bitCount(m) < 2 ){
+			return null;
+		}
+		int low = m & -m;
+		if( Integer.bitCount(m) > 3 ){
+			low |= (m & ~low) & -(m & ~low);
+		}
+		BacktrackSearch prefix = new BacktrackSearch(this);
+		prefix.left[floor] = low;
+		left[floor] = m & ~low;
+		return prefix;
+	}
+
+	/*
+	 * Returns a of the solution advance() stopped at.
+	 */
+	int a(){
+		return a[goal];
+	}
+
+	/*
+	 * Returns e of the solution advance() stopped at.
+	 */
+	int e(){
+		return e[goal];
+	}
+
+	/*
+	 * Finds the children of the node at depth d.
+	 */
+	private void expand(int d){
+		int bit = 1 << d, m = 0;
+		for( int l=0;l<4;l++ ){
+			int ca = (l & 2) != 0 ? a[d] | bit : a[d];
+			int ce = (l & 1) != 0 ? e[d] | bit : e[d];
+			if( planes.works(d, ca, ce) ){
+				m |= 1 << l;
+			}
+		}
+		left[d] = m;
+		if( tested != null ){
+			tested[d] += 4;
+			accepted[d] += Integer.bitCount(m);
+		}
+	}
+}
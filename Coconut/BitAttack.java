@@ -92,78 +92,69 @@ public class BitAttack {
 	}
 
 	/*
-	 * Perform the attack.
+	 * Perform the attack. The result holds {a, e} for each candidate, or is
+	 * null if there are none; getXor is not used, the g xor c of a pair
+	 * being left to the caller.
 	 */
 	public ArrayList<int[]> attack(){return attack(8);}
 	public ArrayList<int[]> attack(int numBits){return attack(ae,getCG,numBits);}
 	public ArrayList<int[]> attack(TestFunction t1,GetXOR getXor,int numBits){
 		int mask = 1;
 
-		ArrayList<int[]> pairs = new ArrayList<int[]>();
-		pairs.add(new int[]{0,0});
+		// The candidates of a level and of the next, packed by Candidates,
+		// and the set that keeps them unique. All three are reused from
+		// level to level.
+		long[] pairs = new long[16], next = new long[16];
+		int n = 1;
+		LongHashSet seen = new LongHashSet();
 
 		for( int i=0;i<numBits;i++){
+			AttackPhaseEvent event = AttackPhaseEvent.begin("BitAttack", i);
+			long tested = 0;
+			int bit = 1 << i;
 			for( int j=0;j<X.length-1;j++ ){
 				int[] xl = X[j],xr = X[j+1];
 				int[] yl = Y[j],yr = Y[j+1];
 
-				mask |= (1 << i);
-				ArrayList<int[]> curPairs = new ArrayList<int[]>();
-				ArrayList<int[]> innerPairs = new ArrayList<int[]>();
-				for(int[] pair : pairs ){
-					if( j == 0 ){
-						for( int l=0;l<4;l++ ){
-							int a=pair[0];int b=pair[1];
-							switch(l){
-								case 1:
-									b |= (1 << i);
-									break;
-								case 2:
-									a |= (1 << i);
-									break;
-								case 3:
-									a |= (1 << i);
-									b |= (1 << i);
-									break;
-							}
-							innerPairs.add(new int[]{a,b});
-						}
-					}else{
-						innerPairs.add(pair);
-					}
+				mask |= bit;
+				// The first pair of plaintexts extends every candidate by
+				// the four values of bit i of a and e; the rest filter.
+				int ways = j == 0 ? 4 : 1;
+				if( (long)n*ways > next.length ){
+					next = new long[(int)Math.min(Integer.MAX_VALUE-8, Math.max((long)n*ways, 2L*next.length))];
 				}
-
-				for(int[] pair : innerPairs){
-					int a=pair[0],b=pair[1];
-					if( t1.test(a,b,xl,xr,yl,yr,mask) ){
-						int[] p1 = new int[]{a,b};
-						boolean match = false;
-						for( int[] p2 : curPairs ){
-							if( p1[0] == p2[0] && p1[1] == p2[1] ){
-								match = true;
+				tested += (long)n*ways;
+				seen.clear();
+				int m = 0;
+				for( int p=0;p<n;p++ ){
+					int a0 = Candidates.first(pairs[p]), b0 = Candidates.second(pairs[p]);
+					for( int l=0;l<ways;l++ ){
+						int a = (l & 2) != 0 ? a0 | bit : a0;
+						int b = (l & 1) != 0 ? b0 | bit : b0;
+						if( t1.test(a,b,xl,xr,yl,yr,mask) ){
+							long v = Candidates.pack(a,b);
+							if( seen.add(v) ){
+								next[m++] = v;
 							}
 						}
-
-						if( !match){
-							curPairs.add(p1);
-						}
 					}
 				}
 
-				pairs = new ArrayList<int[]>(curPairs);
+				long[] t = pairs; pairs = next; next = t;
+				n = m;
 			}
+			event.end(tested, n);
 		}
 
-		if( pairs.size() == 0 ){
+		if( n == 0 ){
 			return null;
 		}
 
-		for(int[] pair : pairs){
-			pair = new int[]{pair[0],pair[1],getXor.get(pair[0],pair[1])};
+		ArrayList<int[]> result = new ArrayList<int[]>(n);
+		for( int p=0;p<n;p++ ){
+			result.add(new int[]{Candidates.first(pairs[p]),Candidates.second(pairs[p])});
 		}
-
-
-		return pairs;
+		return result;
 	}
 
 	/*
@@ -0,0 +1,311 @@
+package Coconut;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import Akelarre.KeyScheduler;
+
+/*
+ * Tests 64 one-round Akelarre keys at once by bitslicing. A 32 bit word
+ * under 64 different keys is held as 32 longs, long b holding bit b of the
+ * word for every key, key j in bit j. Xor is then one instruction for all
+ * 64 keys, addition is a ripple carry adder over the 32 longs, and the
+ * comparison with the cipher text ends in a single test of one long.
+ * Cipher text word 2 is known once the first half of the last round is
+ * done, so nearly every group is rejected halfway through.
+ *
+ * The data dependent rotations are the costly part, since each key rotates
+ * by its own amount. rotl31 and rotl1 both leave one bit where it is and
+ * rotate the other 31, so each is a rotation of a 31 bit ring, done as a
+ * five stage barrel shifter that picks per key, stage by stage, between
+ * rotating by 2^s and not, plus a fix up of bits 0 and 31:
+ *
+ * rotl31: ring is {x31,x1..x30}; out[0..30] = ring, out[31] = ring[0],
+ *         out[0] cleared if the amount is 31, out[0] |= x0
+ * rotl1:  ring is {x0..x30};     out[0..30] = ring, out[31] = ring[0] if
+ *         the amount is not 0, out[31] |= x31
+ *
+ * The keys of a group are base to base+63 with base a multiple of 64, so
+ * they share the high 16 bit subblock of the key and with it every even
+ * subkey. In one round that makes W0 = (x0+k0)^x2^k2, and so every
+ * rotation amount taken from it, the same for all 64 keys; a barrel
+ * shifter stage whose control is the same for every key is a plain
+ * rotation or nothing at all, so only the first rotation really costs.
+ * The odd subkeys come from the low subblock; their bitsliced form
+ * depends only on base and is built once per search for each group, since
+ * a search walks the same groups every time. The workers of one search
+ * share the groups they build through the BitslicedKeySearch(shared)
+ * constructor, and the groups are freed with the last of them.
+ *
+ * Like BruteforceAttack, this covers one round, a one word key and no
+ * 128 bit rotation.
+ */
+public class BitslicedKeySearch {
+	private static final int ROUNDS = 1;
+	private static final int SUBKEYS = 13*ROUNDS+9;
+
+	/*
+	 * The bitsliced odd subkeys of each group of 64 low subblocks, 32 longs
+	 * for each odd subkey, built on first use and shared with the searches
+	 * constructed from this one.
+	 */
+	private final AtomicReferenceArray<long[]> low;
+
+	private final int[] plaintext;
+	private final int[] ciphertext;
+	private final KeyScheduler scheduler = new KeyScheduler(ROUNDS,4);
+
+	/*
+	 * The high subblock the even subkeys are built for, -1 before the first.
+	 */
+	private int hi = -1;
+
+	/*
+	 * The bitsliced subkeys, 32 longs per subkey.
+	 */
+	private final long[] K = new long[32*SUBKEYS];
+
+	/*
+	 * The state and scratch.
+	 */
+	private final long[] a0 = new long[32], a1 = new long[32], a2 = new long[32], a3 = new long[32];
+	private final long[] p1 = new long[32], p2 = new long[32];
+	private final long[] t0 = new long[32], t1 = new long[32];
+	private final long[] ring = new long[31], tmp = new long[31];
+
+	public BitslicedKeySearch(int[] pt,int[] ct){
+		this.plaintext = pt;
+		this.ciphertext = ct;
+		this.low = new AtomicReferenceArray<long[]>(1 << 10);
+	}
+
+	/*
+	 * Constructs a search for the same plaintext and cipher text as shared
+	 * that shares its odd subkeys, for another thread of the same search.
+	 */
+	public BitslicedKeySearch(BitslicedKeySearch shared){
+		this.plaintext = shared.plaintext;
+		this.ciphertext = shared.ciphertext;
+		this.low = shared.low;
+	}
+
+	/*
+	 * Tests keys base to base+63.
+	 *
+	 * Returns a mask with bit j set if key base+j encrypts the plaintext to
+	 * the cipher text.
+	 */
+	public long test(int base){
+		if( (base & 63) != 0 ){
+			throw new IllegalArgumentException("Base must be a multiple of 64.");
+		}
+		loadSubkeys(base);
+
+		//Initialization
+		add(splat(plaintext[0],a0), 0, a0);
+		xor(splat(plaintext[1],a1), 1, a1);
+		xor(splat(plaintext[2],a2), 2, a2);
+		add(splat(plaintext[3],a3), 3, a3);
+
+		for( int r=0;r<ROUNDS;r++ ){
+			int kb = 13*r+5;
+			for( int b=0;b<32;b++ ){
+				p1[b] = a0[b] ^ a2[b];
+				p2[b] = a1[b] ^ a3[b];
+			}
+
+			rotl31(p1, p2, 0, 5, t1);	add(t1, kb, t1);
+			rotl1(t1, p1, 5, 5, t1);	add(t1, kb+1, t1);
+			rotl31(t1, p1, 10, 5, t1);	add(t1, kb+2, t1);
+			rotl1(t1, p1, 15, 5, t1);	add(t1, kb+3, t1);
+			rotl31(t1, p1, 20, 4, t1);	add(t1, kb+4, t1);
+			rotl1(t1, p1, 24, 4, t1);	add(t1, kb+5, t1);
+
+			// Word 2 leaves the last round as a2^t1 and is only xored
+			// with a subkey after that, so it can be checked before t0
+			// is computed. A wrong key passes with odds of 2^-32, so this
+			// nearly always ends the group here.
+			if( r == ROUNDS-1 ){
+				int o2 = 32*(13*ROUNDS+7);
+				long diff = 0;
+				for( int b=0;b<32;b++ ){
+					diff |= a2[b] ^ t1[b] ^ K[o2+b] ^ -(long)((ciphertext[2] >>> b) & 1);
+				}
+				if( diff == -1L ){
+					return 0;
+				}
+			}
+
+			rotl1(t1, p1, 0, 5, t0);	add(t0, kb+6, t0);
+			rotl31(t0, p1, 5, 5, t0);	add(t0, kb+7, t0);
+			rotl1(t0, p1, 10, 5, t0);	add(t0, kb+8, t0);
+			rotl31(t0, p1, 15, 5, t0);	add(t0, kb+9, t0);
+			rotl1(t0, p1, 20, 4, t0);	add(t0, kb+10, t0);
+			rotl31(t0, p1, 24, 4, t0);	add(t0, kb+11, t0);
+
+			for( int b=0;b<32;b++ ){
+				a0[b] ^= t1[b];
+				a2[b] ^= t1[b];
+				a1[b] ^= t0[b];
+				a3[b] ^= t0[b];
+			}
+		}
+
+		//Output Transformation and comparison
+		int o = 13*ROUNDS+5;
+		add(a0, o, a0);
+		xor(a1, o+1, a1);
+		xor(a2, o+2, a2);
+		add(a3, o+3, a3);
+		long diff = differ(a0,ciphertext[0]) | differ(a1,ciphertext[1])
+				| differ(a2,ciphertext[2]) | differ(a3,ciphertext[3]);
+		return ~diff;
+	}
+
+	/*
+	 * Fills in K for the group starting at base.
+	 */
+	private void loadSubkeys(int base){
+		if( base >>> 16 != hi ){
+			hi = base >>> 16;
+			int[] row = scheduler.schedule(new int[]{hi << 16});
+			for( int i=0;i<SUBKEYS;i+=2 ){
+				splat(row[i], K, 32*i);
+			}
+		}
+		long[] low = low((base & 0xFFFF) >>> 6);
+		for( int i=1, j=0;i<SUBKEYS;i+=2, j+=32 ){
+			System.arraycopy(low, j, K, 32*i, 32);
+		}
+	}
+
+	/*
+	 * Returns the bitsliced odd subkeys of group g, building them the first
+	 * time.
+	 */
+	private long[] low(int g){
+		long[] low = this.low.get(g);
+		if( low == null ){
+			low = new long[32*(SUBKEYS/2)];
+			for( int j=0;j<64;j++ ){
+				int[] row = scheduler.schedule(new int[]{(g << 6) | j});
+				for( int i=1, o=0;i<SUBKEYS;i+=2, o+=32 ){
+					for( int b=0;b<32;b++ ){
+						low[o+b] |= (long)((row[i] >>> b) & 1) << j;
+					}
+				}
+			}
+			this.low.compareAndSet(g, null, low);
+			low = this.low.get(g);
+		}
+		return low;
+	}
+
+	/*
+	 * Sets out to the word x under every key.
+	 */
+	private static long[] splat(int x,long[] out){
+		splat(x, out, 0);
+		return out;
+	}
+
+	private static void splat(int x,long[] out,int off){
+		for( int b=0;b<32;b++ ){
+			out[off+b] = -(long)((x >>> b) & 1);
+		}
+	}
+
+	/*
+	 * Returns a mask of the keys for which x is not the word w.
+	 */
+	private static long differ(long[] x,int w){
+		long d = 0;
+		for( int b=0;b<32;b++ ){
+			d |= x[b] ^ -(long)((w >>> b) & 1);
+		}
+		return d;
+	}
+
+	/*
+	 * out = x ^ subkey k.
+	 */
+	private void xor(long[] x,int k,long[] out){
+		for( int b=0, o=32*k;b<32;b++ ){
+			out[b] = x[b] ^ K[o+b];
+		}
+	}
+
+	/*
+	 * out = x + subkey k, modulo 2^32.
+	 */
+	private void add(long[] x,int k,long[] out){
+		long c = 0;
+		for( int b=0, o=32*k;b<32;b++ ){
+			long s = x[b] ^ K[o+b];
+			long g = x[b] & K[o+b];
+			out[b] = s ^ c;
+			c = g | (c & s);
+		}
+	}
+
+	/*
+	 * out = Akelarre.rotl31(x, y) for every key, y being the bits bits of a
+	 * starting at bit from. out may be x.
+	 */
+	private void rotl31(long[] x,long[] a,int from,int bits,long[] out){
+		long x0 = x[0];
+		long all = bits == 5 ? a[from] & a[from+1] & a[from+2] & a[from+3] & a[from+4] : 0;
+		ring[0] = x[31];
+		System.arraycopy(x, 1, ring, 1, 30);
+		rotate(a, from, bits);
+		System.arraycopy(ring, 0, out, 0, 31);
+		out[31] = ring[0];
+		out[0] = (ring[0] & ~all) | x0;
+	}
+
+	/*
+	 * out = Akelarre.rotl1(x, y) for every key, y being the bits bits of a
+	 * starting at bit from. out may be x.
+	 */
+	private void rotl1(long[] x,long[] a,int from,int bits,long[] out){
+		long x31 = x[31];
+		long nonzero = 0;
+		for( int s=0;s<bits;s++ ){
+			nonzero |= a[from+s];
+		}
+		System.arraycopy(x, 0, ring, 0, 31);
+		rotate(a, from, bits);
+		System.arraycopy(ring, 0, out, 0, 31);
+		out[31] = (ring[0] & nonzero) | x31;
+	}
+
+	/*
+	 * Rotates ring left, a 31 bit rotation, by the bits bits of a starting
+	 * at bit from, each key by its own amount.
+	 */
+	private void rotate(long[] a,int from,int bits){
+		long[] r = ring, t = tmp;
+		for( int s=0;s<bits;s++ ){
+			long m = a[from+s];
+			int d = 1 << s;
+			if( m == 0 ){
+				continue;
+			}
+			if( m == -1L ){
+				System.arraycopy(r, 31-d, t, 0, d);
+				System.arraycopy(r, 0, t, d, 31-d);
+				long[] swap = r; r = t; t = swap;
+				continue;
+			}
+			for( int i=0;i<d;i++ ){
+				t[i] = r[i] ^ (m & (r[i] ^ r[i-d+31]));
+			}
+			for( int i=d;i<31;i++ ){
+				t[i] = r[i] ^ (m & (r[i] ^ r[i-d]));
+			}
+			long[] swap = r; r = t; t = swap;
+		}
+		if( r != ring ){
+			System.arraycopy(r, 0, ring, 0, 31);
+		}
+	}
+}
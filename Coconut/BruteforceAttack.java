@@ -1,6 +1,8 @@
 package Coconut;
 
 import Akelarre.Akelarre;
+import Akelarre.IncrementalKeyScheduler;
+import Akelarre.KeyBatch;
 
 public class BruteforceAttack {
 	private int[] plaintext;
@@ -39,15 +41,18 @@ public class BruteforceAttack {
 	}
 
 	/*
-	 * Runs a bruteforce attack.
+	 * Runs a bruteforce attack. Consecutive keys share their high
+	 * subblocks, so the key is scheduled incrementally and only the
+	 * encryption subkeys are ever computed.
 	 */
 	public int[] attack(){
 		int[] key = {0};
-		Akelarre ake;
+		IncrementalKeyScheduler scheduler = new IncrementalKeyScheduler(1,4);
+		int[] out = new int[4];
 		int endVal = (int)Math.pow(2,numBits)-1;
 		while(true){
 			boolean reachedEnd = true;
-			ake = new Akelarre(1,4,key);
+			scheduler.schedule(key);
 
 			for(int i : key){
 				if( i != endVal ){
@@ -58,7 +63,8 @@ public class BruteforceAttack {
 
 			if( reachedEnd ) return null;
 
-			if(eq(ake.encrypt(plaintext),ciphertext)){
+			scheduler.encryptBlock(plaintext,0,out,0);
+			if(eq(out,ciphertext)){
 				return key;
 			}
 
@@ -71,6 +77,53 @@ public class BruteforceAttack {
 		}
 	}
 
+	/*
+	 * Runs the same search as attack(), a batch of keys at a time. Keys
+	 * are tried in the same order and the end value is still never tried,
+	 * so the same key is found.
+	 */
+	public int[] batchAttack(){return batchAttack(1024);}
+	public int[] batchAttack(int batchSize){
+		int endVal = (int)Math.pow(2,numBits)-1;
+		KeyBatch batch = new KeyBatch(1,4,Math.max(1,Math.min(batchSize,endVal)));
+		for(int first=0;first<endVal;first+=batch.size()){
+			batch.scheduleRange(first,Math.min(batchSize,endVal-first));
+			int i = batch.firstMatch(plaintext,ciphertext);
+			if( i >= 0 ){
+				return new int[]{first+i};
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Runs the same search as attack(), 64 keys at a time with
+	 * BitslicedKeySearch. The lowest matching key below the end value is
+	 * returned, so the same key is found.
+	 */
+	public int[] bitslicedAttack(){
+		int endVal = (int)Math.pow(2,numBits)-1;
+		BitslicedKeySearch search = new BitslicedKeySearch(plaintext,ciphertext);
+		for(long base=0;base<endVal;base+=64){
+			long match = search.test((int)base);
+			if( endVal - base < 64 ){
+				match &= (1L << (endVal - base)) - 1;
+			}
+			if( match != 0 ){
+				return new int[]{(int)base + Long.numberOfTrailingZeros(match)};
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Runs the same search as attack() on every core with
+	 * ParallelBruteforceAttack, so the same key is found.
+	 */
+	public int[] parallelAttack(){
+		return new ParallelBruteforceAttack(plaintext,ciphertext,numBits).attack();
+	}
+
 	/*
 	 * Check if integer array a and integer array b are equal.
 	 */
@@ -0,0 +1,181 @@
+package Coconut;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ * One level of the candidates of a breadth first attack, each packed into
+ * a long by Candidates. At most budget candidates are held on the heap, in
+ * a buffer that grows up to the budget; when it fills it is appended as a
+ * run to a temporary file and the buffer is reused. Reading walks the file
+ * and then the buffer, so candidates come back in the order they were
+ * added.
+ *
+ * The file is written and read through one direct window of WINDOW bytes
+ * with positional channel calls, so a frontier holds one native buffer
+ * however many runs it spills, and no mappings.
+ *
+ * The file is deleted by close(). A frontier is written and then read, by
+ * one thread.
+ */
+class CandidateFrontier implements Closeable {
+	/*
+	 * The default number of candidates held on the heap, 32 MiB of them.
+	 */
+	static final int DEFAULT_BUDGET = 1 << 22;
+
+	/*
+	 * The most candidates held on the heap.
+	 */
+	static final int MAX_BUDGET = 1 << 27;
+
+	/*
+	 * The bytes moved to and from the file at a time.
+	 */
+	private static final int WINDOW = 1 << 16;
+
+	private final int budget;
+	private long[] buffer;
+	private int buffered;
+	private long size;
+
+	/*
+	 * The spill file and its window, null until the first spill, the
+	 * candidates in it and the runs they were written in.
+	 */
+	private Path file;
+	private FileChannel channel;
+	private ByteBuffer window;
+	private long spilled;
+	private int runs;
+
+	CandidateFrontier(int budget){
+		if( budget < 1 || budget > MAX_BUDGET ){
+			throw new IllegalArgumentException("Budget must be between 1 and " + MAX_BUDGET + " candidates.");
+		}
+		this.budget = budget;
+		this.buffer = new long[Math.min(budget, 1024)];
+	}
+
+	void add(long v){
+		if( buffered == buffer.length ){
+			if( buffer.length < budget ){
+				buffer = Arrays.copyOf(buffer, (int)Math.min(budget, 2L*buffer.length));
+			}else{
+				spill();
+			}
+		}
+		buffer[buffered++] = v;
+		size++;
+	}
+
+	long size(){
+		return size;
+	}
+
+	/*
+	 * Returns the number of runs written to disk.
+	 */
+	int spills(){
+		return runs;
+	}
+
+	private void spill(){
+		try{
+			if( channel == null ){
+				file = Files.createTempFile("akelarre-frontier", ".bin");
+				channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+				window = ByteBuffer.allocateDirect(WINDOW);
+			}
+			for( int i=0;i<buffered; ){
+				int n = Math.min(buffered - i, WINDOW/8);
+				window.clear();
+				window.asLongBuffer().put(buffer, i, n);
+				window.limit(8*n);
+				while( window.hasRemaining() ){
+					channel.write(window, 8*(spilled + i) + window.position());
+				}
+				i += n;
+			}
+			spilled += buffered;
+			runs++;
+			buffered = 0;
+		}catch( IOException e ){
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/*
+	 * Returns a cursor over the candidates in the order they were added.
+	 * Nothing may be added while it is in use, and only one cursor may be
+	 * in use at a time, since they share the window.
+	 */
+	Cursor cursor(){
+		return new Cursor();
+	}
+
+	public void close(){
+		try{
+			if( channel != null ){
+				channel.close();
+				Files.deleteIfExists(file);
+				channel = null;
+			}
+		}catch( IOException e ){
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/*
+	 * Reads the file a window at a time, then the buffer.
+	 */
+	class Cursor {
+		private long read;
+		private boolean inBuffer;
+		private LongBuffer longs = LongBuffer.allocate(0);
+
+		boolean hasNext(){
+			while( !longs.hasRemaining() ){
+				if( read < spilled ){
+					fill();
+				}else if( !inBuffer ){
+					inBuffer = true;
+					longs = LongBuffer.wrap(buffer, 0, buffered);
+				}else{
+					return false;
+				}
+			}
+			return true;
+		}
+
+		long next(){
+			return longs.get();
+		}
+
+		private void fill(){
+			try{
+				window.clear();
+				window.limit((int)Math.min(WINDOW, 8*(spilled - read)));
+				while( window.hasRemaining() ){
+					if( channel.read(window, 8*read + window.position()) < 0 ){
+						throw new EOFException("Frontier file ends early.");
+					}
+				}
+				window.flip();
+				longs = window.asLongBuffer();
+				read += longs.remaining();
+			}catch( IOException e ){
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package Coconut;
+
+/*
+ * The packing of a candidate pair of the bit attacks into one long, the
+ * first value in the high word and the second in the low one, as kept by
+ * LongHashSet, CandidateFrontier and the candidate arrays of BitAttack.
+ */
+final class Candidates {
+	private Candidates(){}
+
+	/*
+	 * Packs a pair into a long.
+	 */
+	static long pack(int a,int e){
+		return ((long)a << 32) | (e & 0xFFFFFFFFL);
+	}
+
+	static int first(long p){
+		return (int)(p >>> 32);
+	}
+
+	static int second(long p){
+		return (int)p;
+	}
+}
@@ -0,0 +1,107 @@
+package Coconut;
+
+import java.util.Arrays;
+
+/*
+ * A set of longs by open addressing with linear probing, for the candidate
+ * pairs of the bit attacks packed by Candidates. Nothing is allocated per
+ * element, and clear() keeps the table, so one set serves every level of
+ * an attack.
+ */
+class LongHashSet {
+	/*
+	 * Marks a free slot. The value itself is tracked by hasFree.
+	 */
+	private static final long FREE = 0;
+
+	private long[] table;
+	private int size;
+	private boolean hasFree;
+
+	LongHashSet(){
+		table = new long[16];
+	}
+
+	/*
+	 * Adds v, returning false if it was already there.
+	 */
+	boolean add(long v){
+		if( v == FREE ){
+			if( hasFree ){
+				return false;
+			}
+			hasFree = true;
+			size++;
+			return true;
+		}
+		int m = table.length - 1;
+		for( int i=hash(v) & m;;i=(i+1) & m ){
+			long t = table[i];
+			if( t == FREE ){
+				table[i] = v;
+				if( ++size > table.length >> 1 ){
+					grow();
+				}
+				return true;
+			}
+			if( t == v ){
+				return false;
+			}
+		}
+	}
+
+	boolean contains(long v){
+		if( v == FREE ){
+			return hasFree;
+		}
+		int m = table.length - 1;
+		for( int i=hash(v) & m;;i=(i+1) & m ){
+			long t = table[i];
+			if( t == FREE ){
+				return false;
+			}
+			if( t == v ){
+				return true;
+			}
+		}
+	}
+
+	int size(){
+		return size;
+	}
+
+	/*
+	 * Empties the set, keeping the table.
+	 */
+	void clear(){
+		if( size > 0 ){
+			Arrays.fill(table, FREE);
+			size = 0;
+			hasFree = false;
+		}
+	}
+
+	private void grow(){
+		long[] old = table;
+		table = new long[old.length << 1];
+		int m = table.length - 1;
+		for( long v : old ){
+			if( v != FREE ){
+				int i = hash(v) & m;
+				while( table[i] != FREE ){
+					i = (i+1) & m;
+				}
+				table[i] = v;
+			}
+		}
+	}
+
+	/*
+	 * Spreads the bits of v, the low bits of a packed pair being much the
+	 * same from one pair to the next.
+	 */
+	private static int hash(long v){
+		v *= 0x9E3779B97F4A7C15L;
+		return (int)(v ^ (v >>> 32));
+	}
+}
@@ -0,0 +1,74 @@
+package Coconut;
+
+/*
+ * The pairs of BacktrackAttack.testWithCarry packed into bit planes, so a
+ * choice is tested against 64 pairs with a few word operations and the
+ * test stops at the first word with a failing pair.
+ *
+ * In testWithCarry bit s of a and of -e turns up on both sides and cancels,
+ * and what is left of pair i, with xl=X[i], xr=Y[i], yl=X[i+1] and
+ * yr=Y[i+1], is
+ *
+ *   c ^ (e0 & p) ^ (a0 & q) == 0
+ *
+ * where c is bit s of xl[0]^xr[0]^xl[2]^xr[2]^yl[0]^yr[0]^yl[2]^yr[2], p is
+ * bit s-1 of yl[0]^yr[0], q is bit s-1 of xl[0]^xr[0], and a0 and e0 are
+ * bit s-1 of a and of -e; at shift 0 there is no carry and only c is left.
+ * Bit i of the words at shift s holds c, p and q of pair i.
+ */
+final class PairPlanes {
+	private final int words;
+
+	/*
+	 * The planes, words of them per shift.
+	 */
+	private final long[] c, p, q;
+
+	PairPlanes(int[][] X,int[][] Y){
+		int pairs = Math.max(0, X.length - 1);
+		words = (pairs + 63) >>> 6;
+		c = new long[32*words];
+		p = new long[32*words];
+		q = new long[32*words];
+		for( int i=0;i<pairs;i++ ){
+			int[] xl = X[i],xr = Y[i];
+			int[] yl = X[i+1],yr = Y[i+1];
+			int ci = xl[0]^xr[0]^xl[2]^xr[2]^yl[0]^yr[0]^yl[2]^yr[2];
+			int pi = yl[0]^yr[0], qi = xl[0]^xr[0];
+			int w = i >>> 6;
+			long bit = 1L << i;
+			for( int s=0;s<32;s++ ){
+				int o = s*words + w;
+				if( ((ci >>> s) & 1) != 0 ){
+					c[o] |= bit;
+				}
+				if( s > 0 && ((pi >>> (s-1)) & 1) != 0 ){
+					p[o] |= bit;
+				}
+				if( s > 0 && ((qi >>> (s-1)) & 1) != 0 ){
+					q[o] |= bit;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Returns whether testWithCarry holds for every pair.
+	 */
+	boolean works(int shift,int a,int e){
+		if( shift >= 32 ){
+			return words == 0;
+		}
+		long am = 0, em = 0;
+		if( shift > 0 ){
+			am = -(long)((a >>> (shift-1)) & 1);
+			em = -(long)((-e >>> (shift-1)) & 1);
+		}
+		for( int o=shift*words,end=o+words;o<end;o++ ){
+			if( (c[o] ^ (p[o] & em) ^ (q[o] & am)) != 0 ){
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,260 @@
+package Coconut;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Runs the search of BruteforceAttack on every core. The key range is cut
+ * into work units of unitKeys keys that the workers, one per thread of the
+ * pool, claim in increasing order; each unit is searched 64 keys at a time
+ * with BitslicedKeySearch.
+ *
+ * The first match found is not necessarily the lowest, since a unit below
+ * it may still be running. So a match only lowers the bound the workers
+ * search up to: units and groups at or above it are dropped at once, those
+ * below it run to the end, and the lowest match is returned. That is the
+ * key the sequential search finds, and null when it finds none.
+ *
+ * Progress can be saved to a SearchCheckpoint as units complete and a
+ * search resumed from it later.
+ *
+ * Sample Usage:
+ * ParallelBruteforceAttack attack = new ParallelBruteforceAttack(pt, ct, 28);
+ * int[] key = attack.attack();
+ * System.out.println(attack.getKeysPerSecond() + " keys/s");
+ */
+public class ParallelBruteforceAttack {
+	/*
+	 * The default number of keys in a work unit.
+	 */
+	public static final int DEFAULT_UNIT_KEYS = 1 << 16;
+
+	/*
+	 * Returned by searchUnit() when it stops before the end of the unit.
+	 */
+	private static final long STOPPED = -2;
+
+	private final int[] plaintext;
+	private final int[] ciphertext;
+	private final int numBits;
+	private final ForkJoinPool pool;
+	private final int unitKeys;
+
+	/*
+	 * The first unit not yet claimed, the lowest match so far, or
+	 * Long.MAX_VALUE, and the keys tried.
+	 */
+	private final AtomicLong next = new AtomicLong();
+	private final AtomicLong best = new AtomicLong(Long.MAX_VALUE);
+	private final LongAdder tested = new LongAdder();
+	private volatile boolean cancelled;
+	private volatile long startNanos, endNanos;
+
+	public ParallelBruteforceAttack(int[] pt,int[] ct,int numBits){
+		this(pt,ct,numBits,ForkJoinPool.commonPool(),DEFAULT_UNIT_KEYS);
+	}
+
+	/*
+	 * Constructs an attack that runs on pool, unitKeys keys at a time. The
+	 * unit is rounded up to a multiple of 64.
+	 */
+	public ParallelBruteforceAttack(int[] pt,int[] ct,int numBits,ForkJoinPool pool,int unitKeys){
+		if( unitKeys < 1 ){
+			throw new IllegalArgumentException("Unit must hold at least one key.");
+		}
+		this.plaintext = pt;
+		this.ciphertext = ct;
+		this.numBits = numBits;
+		this.pool = pool;
+		this.unitKeys = (unitKeys + 63) & ~63;
+	}
+
+	/*
+	 * Returns the last key the search covers plus one. Like BruteforceAttack
+	 * the end value itself is never tried.
+	 */
+	public long getEnd(){
+		return (int)Math.pow(2,numBits)-1;
+	}
+
+	/*
+	 * Runs the search over the whole key range.
+	 */
+	public int[] attack(){
+		long k = search(0, getEnd());
+		return k < 0 ? null : new int[]{(int)k};
+	}
+
+	/*
+	 * Runs the search over the whole key range, resuming from the
+	 * checkpoint in file if there is one and saving progress to it every
+	 * intervalMillis. The file holds the final progress when this returns,
+	 * including after cancel(), so a later call carries on where this one
+	 * stopped.
+	 */
+	public int[] attack(Path file,long intervalMillis) throws IOException {
+		SearchCheckpoint cp;
+		if( Files.exists(file) ){
+			cp = SearchCheckpoint.read(file);
+			if( !cp.matches(plaintext, ciphertext, numBits) ){
+				throw new IllegalArgumentException("Checkpoint " + file + " is for a different search.");
+			}
+		}else{
+			cp = new SearchCheckpoint(plaintext, ciphertext, numBits, 0, getEnd(), unitKeys);
+		}
+		cp.startWriting(file, intervalMillis);
+		long k;
+		try{
+			k = search(cp);
+		}finally{
+			cp.stopWriting();
+		}
+		return k < 0 ? null : new int[]{(int)k};
+	}
+
+	/*
+	 * Searches the keys from to to-1 and returns the lowest one that
+	 * encrypts the plaintext to the cipher text, or -1 if there is none or
+	 * the search was cancelled first. Blocks until every worker stops. An
+	 * instance runs one search at a time.
+	 */
+	public long search(long from,long to){
+		return run(from, to, unitKeys, null);
+	}
+
+	/*
+	 * Searches the range of the checkpoint in its units, skipping the units
+	 * it has done and starting from the match it holds. Units are marked in
+	 * the checkpoint as they complete.
+	 */
+	public long search(SearchCheckpoint cp){
+		return run(cp.getFrom(), cp.getTo(), cp.getUnitKeys(), cp);
+	}
+
+	private long run(long from,long to,final int unitKeys,final SearchCheckpoint cp){
+		to = Math.min(to, getEnd());
+		next.set(0);
+		best.set(cp == null || cp.getBest() < 0 ? Long.MAX_VALUE : cp.getBest());
+		tested.reset();
+		startNanos = System.nanoTime();
+		endNanos = 0;
+		try{
+			if( from < to ){
+				long units = (to - from + unitKeys - 1) / unitKeys;
+				int workers = (int)Math.max(1, Math.min(units, pool.getParallelism()));
+				ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[workers];
+				// the odd subkeys are built once for all the workers and
+				// freed when this search ends
+				final BitslicedKeySearch shared = new BitslicedKeySearch(plaintext,ciphertext);
+				for( int w=0;w<workers;w++ ){
+					final long f = from, t = to;
+					tasks[w] = pool.submit(new Runnable(){
+						public void run(){
+							work(f, t, unitKeys, cp, shared);
+						}
+					});
+				}
+				for( ForkJoinTask<?> task : tasks ){
+					task.join();
+				}
+			}
+		}finally{
+			endNanos = System.nanoTime();
+		}
+		long k = best.get();
+		return k == Long.MAX_VALUE || cancelled ? -1 : k;
+	}
+
+	/*
+	 * Claims and searches units until the range is done, a match is found
+	 * below the next unit, or the search is cancelled, with a search that
+	 * shares the odd subkeys of shared.
+	 */
+	private void work(long from,long to,int unitKeys,SearchCheckpoint cp,BitslicedKeySearch shared){
+		BitslicedKeySearch search = new BitslicedKeySearch(shared);
+		while( !cancelled ){
+			long u = next.getAndIncrement();
+			long lo = from + u * unitKeys;
+			if( lo >= to || lo >= best.get() ){
+				return;
+			}
+			if( cp != null && cp.isDone(u) ){
+				continue;
+			}
+			long k = searchUnit(search, lo, Math.min(to, lo + unitKeys));
+			if( k == STOPPED ){
+				return;
+			}
+			if( cp != null ){
+				// the match first, so that a saved unit has its match
+				if( k >= 0 ){
+					cp.found(k);
+				}
+				cp.markDone(u);
+			}
+			if( k >= 0 ){
+				long b;
+				while( k < (b = best.get()) && !best.compareAndSet(b, k) );
+				return;
+			}
+		}
+	}
+
+	/*
+	 * Returns the lowest match in lo to hi-1, -1 if there is none, or
+	 * STOPPED if a match below the group became known or the search was
+	 * cancelled first.
+	 */
+	long searchUnit(BitslicedKeySearch search,long lo,long hi){
+		for( long base=lo & ~63L;base<hi;base+=64 ){
+			if( cancelled || base >= best.get() ){
+				return STOPPED;
+			}
+			long match = search.test((int)base);
+			if( lo > base ){
+				match &= -1L << (lo - base);
+			}
+			if( hi - base < 64 ){
+				match &= (1L << (hi - base)) - 1;
+			}
+			tested.add(Math.min(hi, base + 64) - Math.max(lo, base));
+			if( match != 0 ){
+				return base + Long.numberOfTrailingZeros(match);
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Stops the running search and any later one; search() then returns -1
+	 * and attack() null.
+	 */
+	public void cancel(){
+		cancelled = true;
+	}
+
+	public boolean isCancelled(){
+		return cancelled;
+	}
+
+	/*
+	 * Returns the keys tried so far by the current or last search.
+	 */
+	public long getKeysTested(){
+		return tested.sum();
+	}
+
+	/*
+	 * Returns the keys tried per second by the current or last search.
+	 */
+	public double getKeysPerSecond(){
+		long end = endNanos == 0 ? System.nanoTime() : endNanos;
+		long nanos = end - startNanos;
+		return nanos <= 0 ? 0 : tested.sum() * 1e9 / nanos;
+	}
+}
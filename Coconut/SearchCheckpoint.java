@@ -0,0 +1,316 @@
+package Coconut;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.CRC32;
+
+/*
+ * The progress of a ParallelBruteforceAttack: which work units of the key
+ * range are done, one bit per unit, and the lowest match found so far. The
+ * workers set bits with a single atomic or and never wait for a write; a
+ * writer thread copies the bits out every so often and saves them.
+ *
+ * A checkpoint is saved to a temporary file next to the target, forced to
+ * disk and then moved over the target in one atomic step, so the file on
+ * disk is always a whole checkpoint, the last one or the one before. A
+ * 32 bit search in units of 2^16 keys takes 8 KiB.
+ *
+ * The units are fixed by the range and the unit size stored in the file,
+ * so a resumed search skips exactly the units already done. The bits of a
+ * snapshot are read before the match, and the workers record a match
+ * before marking its unit, so a saved unit is never missing its match.
+ *
+ * Sample Usage:
+ * ParallelBruteforceAttack attack = new ParallelBruteforceAttack(pt, ct, 32);
+ * int[] key = attack.attack(Paths.get("search.ckpt"), 60000);
+ */
+public class SearchCheckpoint {
+	private static final int MAGIC = 0x414B4350; // "AKCP"
+	private static final int VERSION = 1;
+
+	private final int[] plaintext;
+	private final int[] ciphertext;
+	private final int numBits;
+	private final long from, to;
+	private final int unitKeys;
+	private final AtomicLongArray done;
+	private final AtomicLong best;
+
+	private ScheduledExecutorService writer;
+	private Path file;
+
+	/*
+	 * The last error of the writer thread since startWriting, or null.
+	 */
+	private volatile IOException failure;
+
+	/*
+	 * Constructs a checkpoint with no unit done, for the units of unitKeys
+	 * keys from from to to-1.
+	 */
+	public SearchCheckpoint(int[] pt,int[] ct,int numBits,long from,long to,int unitKeys){
+		this(pt,ct,numBits,from,to,unitKeys,null,Long.MAX_VALUE);
+	}
+
+	private SearchCheckpoint(int[] pt,int[] ct,int numBits,long from,long to,int unitKeys,long[] bits,long best){
+		if( unitKeys < 1 || from > to ){
+			throw new IllegalArgumentException("Bad checkpoint range.");
+		}
+		this.plaintext = pt.clone();
+		this.ciphertext = ct.clone();
+		this.numBits = numBits;
+		this.from = from;
+		this.to = to;
+		this.unitKeys = unitKeys;
+		long units = getUnits();
+		if( (units + 63) / 64 > Integer.MAX_VALUE ){
+			throw new IllegalArgumentException("Too many units.");
+		}
+		this.done = bits == null ? new AtomicLongArray((int)((units + 63) / 64)) : new AtomicLongArray(bits);
+		this.best = new AtomicLong(best);
+	}
+
+	/*
+	 * Returns whether this checkpoint is for the given search.
+	 */
+	public boolean matches(int[] pt,int[] ct,int numBits){
+		return Arrays.equals(plaintext, pt) && Arrays.equals(ciphertext, ct)
+				&& this.numBits == numBits;
+	}
+
+	public long getFrom(){
+		return from;
+	}
+
+	public long getTo(){
+		return to;
+	}
+
+	public int getUnitKeys(){
+		return unitKeys;
+	}
+
+	public long getUnits(){
+		return (to - from + unitKeys - 1) / unitKeys;
+	}
+
+	/*
+	 * Returns whether unit u is done.
+	 */
+	public boolean isDone(long u){
+		return (done.get((int)(u >>> 6)) & (1L << u)) != 0;
+	}
+
+	/*
+	 * Marks unit u done.
+	 */
+	public void markDone(long u){
+		long bit = 1L << u;
+		int i = (int)(u >>> 6);
+		long w;
+		while( ((w = done.get(i)) & bit) == 0 && !done.compareAndSet(i, w, w | bit) );
+	}
+
+	/*
+	 * Returns the number of units done.
+	 */
+	public long getUnitsDone(){
+		long n = 0;
+		for( int i=0;i<done.length();i++ ){
+			n += Long.bitCount(done.get(i));
+		}
+		return n;
+	}
+
+	/*
+	 * Records a match, keeping the lowest.
+	 */
+	public void found(long key){
+		long b;
+		while( key < (b = best.get()) && !best.compareAndSet(b, key) );
+	}
+
+	/*
+	 * Returns the lowest match recorded, or -1.
+	 */
+	public long getBest(){
+		long b = best.get();
+		return b == Long.MAX_VALUE ? -1 : b;
+	}
+
+	/*
+	 * Saves the checkpoint to file, replacing it atomically.
+	 */
+	public void write(Path file) throws IOException {
+		long[] bits = new long[done.length()];
+		for( int i=0;i<bits.length;i++ ){
+			bits[i] = done.get(i);
+		}
+		long b = best.get();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 8*bits.length);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(numBits);
+		for( int i=0;i<4;i++ ){
+			out.writeInt(plaintext[i]);
+		}
+		for( int i=0;i<4;i++ ){
+			out.writeInt(ciphertext[i]);
+		}
+		out.writeLong(from);
+		out.writeLong(to);
+		out.writeInt(unitKeys);
+		out.writeLong(b);
+		out.writeInt(bits.length);
+		for( long w : bits ){
+			out.writeLong(w);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(bytes.toByteArray());
+		out.writeLong(crc.getValue());
+		out.flush();
+
+		Path dir = file.toAbsolutePath().getParent();
+		Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+		try{
+			try( FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING) ){
+				ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+				while( buf.hasRemaining() ){
+					ch.write(buf);
+				}
+				ch.force(true);
+			}
+			Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}finally{
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/*
+	 * Loads a checkpoint saved with write().
+	 */
+	public static SearchCheckpoint read(Path file) throws IOException {
+		byte[] data = Files.readAllBytes(file);
+		if( data.length < 8 ){
+			throw new IOException("Corrupt checkpoint " + file);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length - 8);
+		if( crc.getValue() != ByteBuffer.wrap(data, data.length - 8, 8).getLong() ){
+			throw new IOException("Corrupt checkpoint " + file);
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		if( in.readInt() != MAGIC || in.readInt() != VERSION ){
+			throw new IOException("Not a checkpoint " + file);
+		}
+		int numBits = in.readInt();
+		int[] pt = new int[4], ct = new int[4];
+		for( int i=0;i<4;i++ ){
+			pt[i] = in.readInt();
+		}
+		for( int i=0;i<4;i++ ){
+			ct[i] = in.readInt();
+		}
+		long from = in.readLong(), to = in.readLong();
+		int unitKeys = in.readInt();
+		long best = in.readLong();
+		long[] bits = new long[in.readInt()];
+		if( unitKeys < 1 || from > to || bits.length != ((to - from + unitKeys - 1) / unitKeys + 63) / 64 ){
+			throw new IOException("Corrupt checkpoint " + file);
+		}
+		for( int i=0;i<bits.length;i++ ){
+			bits[i] = in.readLong();
+		}
+		return new SearchCheckpoint(pt,ct,numBits,from,to,unitKeys,bits,best);
+	}
+
+	/*
+	 * Starts saving to file every intervalMillis on a daemon thread of its
+	 * own. A save that fails, with an IOException or a RuntimeException,
+	 * leaves the last good file in place and is tried again at the next
+	 * interval; the error is kept for getWriteFailure(), a RuntimeException
+	 * as the cause of an IOException.
+	 */
+	public synchronized void startWriting(final Path file,long intervalMillis){
+		if( intervalMillis < 1 ){
+			throw new IllegalArgumentException("Interval must be positive.");
+		}
+		stopWriting();
+		this.file = file;
+		this.failure = null;
+		writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "akelarre-checkpoint");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		writer.scheduleWithFixedDelay(new Runnable(){
+			public void run(){
+				try{
+					write(file);
+				}catch( IOException e ){
+					failure = e;
+				}catch( RuntimeException e ){
+					// thrown on, it would cancel the task and end the saves
+					failure = new IOException("Checkpoint save failed.", e);
+				}
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/*
+	 * Returns the last error of the writer thread since startWriting, or
+	 * null if every save so far has worked.
+	 */
+	public IOException getWriteFailure(){
+		return failure;
+	}
+
+	/*
+	 * Stops the writer thread, if any, and saves once more so the file
+	 * holds the final progress. If that save fails too the error is thrown,
+	 * with the writer thread's last error, if any, attached as suppressed.
+	 */
+	public synchronized void stopWriting(){
+		if( writer == null ){
+			return;
+		}
+		writer.shutdown();
+		try{
+			writer.awaitTermination(1, TimeUnit.MINUTES);
+		}catch( InterruptedException e ){
+			Thread.currentThread().interrupt();
+		}
+		writer = null;
+		try{
+			write(file);
+		}catch( IOException e ){
+			IOException last = failure;
+			if( last != null && last != e ){
+				e.addSuppressed(last);
+			}
+			failure = e;
+			throw new UncheckedIOException(e);
+		}
+	}
+}
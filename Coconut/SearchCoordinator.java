@@ -0,0 +1,525 @@
+package Coconut;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import Akelarre.Akelarre;
+
+/*
+ * Hands out the key range of a BruteforceAttack search to SearchWorkers on
+ * other machines. The range is cut into leases of leaseKeys keys, kept in a
+ * SearchCheckpoint with one unit per lease. Each worker asks for a lease,
+ * searches it with a local ParallelBruteforceAttack, sends heartbeats while
+ * it runs and reports the result.
+ *
+ * A worker that closes its connection or sends nothing for leaseTimeout
+ * milliseconds is taken for dead, and its lease goes back to the pool to
+ * be handed out again. Like the local search, a match only bounds the
+ * search: leases above it are cancelled, those below it still run, and the
+ * lowest match is the result, or none.
+ *
+ * The protocol is one line of text per message over TCP, the worker
+ * asking and the coordinator answering:
+ *
+ *   HELLO                     -> SEARCH pt0 pt1 pt2 pt3 ct0 ct1 ct2 ct3 numBits
+ *   LEASE                     -> RANGE id from to | WAIT millis | DONE key
+ *   HEARTBEAT id tested       -> OK | CANCEL
+ *   RESULT id key tested nanos -> OK
+ *
+ * with key -1 for no match. A RESULT whose key is outside the lease or
+ * does not encrypt the plaintext to the ciphertext drops the worker, and
+ * its lease goes back to the pool.
+ *
+ * Sample Usage:
+ * SearchCoordinator coordinator = new SearchCoordinator(pt, ct, 32, 4000, 1 << 24, 30000);
+ * coordinator.start();
+ * int[] key = coordinator.awaitResult();
+ */
+public class SearchCoordinator implements Closeable {
+	/*
+	 * How long a worker waits before asking again when every lease below
+	 * the bound is out.
+	 */
+	static final long WAIT_MILLIS = 100;
+
+	/*
+	 * The number of workers served at once by start().
+	 */
+	public static final int DEFAULT_MAX_WORKERS = 64;
+
+	/*
+	 * How long the acceptor waits after accept() fails on an open server,
+	 * out of file descriptors for instance, before trying again.
+	 */
+	static final long ACCEPT_BACKOFF_MILLIS = 100;
+
+	private final int[] plaintext;
+	private final int[] ciphertext;
+	private final int numBits;
+	private final SearchCheckpoint progress;
+	private final long leaseTimeout;
+	private final ServerSocket server;
+
+	/*
+	 * Serves the connections, one thread each, made by start().
+	 */
+	private ThreadPoolExecutor serving;
+
+	/*
+	 * The leases out and the connection holding each.
+	 */
+	private final Map<Long,Connection> leased = new HashMap<Long,Connection>();
+
+	/*
+	 * The keys tried so far in each lease out, from the heartbeats.
+	 */
+	private final Map<Long,Long> running = new HashMap<Long,Long>();
+	private final Set<Connection> connections = new HashSet<Connection>();
+	private boolean finished;
+
+	private final LongAdder tested = new LongAdder();
+	private final LongAdder reissued = new LongAdder();
+	private long startNanos, endNanos;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if( args.length != 3 ){
+			System.out.println("Usage: java Coconut.SearchCoordinator <port> <numBits> <key>");
+			System.exit(1);
+		}
+		int port = Integer.parseInt(args[0]);
+		int numBits = Integer.parseInt(args[1]);
+		Random rand = new Random();
+		int[] pt = {rand.nextInt(),rand.nextInt(),rand.nextInt(),rand.nextInt()};
+		int[] ct = new Akelarre(1,4,new int[]{Integer.parseInt(args[2])}).encrypt(pt);
+
+		SearchCoordinator coordinator = new SearchCoordinator(pt,ct,numBits,port,1 << 20,30000);
+		coordinator.start();
+		System.out.println("Listening on port " + coordinator.getPort());
+		int[] key = coordinator.awaitResult();
+		System.out.println(key == null ? "Attack failed." : "Key found: " + key[0]);
+		System.out.println("Keys/s: " + (long)coordinator.getKeysPerSecond());
+		coordinator.close();
+	}
+
+	/*
+	 * Constructs a coordinator for the whole key range listening on port, 0
+	 * for any free port.
+	 */
+	public SearchCoordinator(int[] pt,int[] ct,int numBits,int port,int leaseKeys,long leaseTimeout) throws IOException {
+		this(new SearchCheckpoint(pt,ct,numBits,0,new ParallelBruteforceAttack(pt,ct,numBits).getEnd(),leaseKeys),
+				pt,ct,numBits,port,leaseTimeout);
+	}
+
+	/*
+	 * Constructs a coordinator that carries on from a checkpoint, one lease
+	 * per unit of it.
+	 */
+	public SearchCoordinator(SearchCheckpoint progress,int[] pt,int[] ct,int numBits,int port,long leaseTimeout) throws IOException {
+		if( !progress.matches(pt, ct, numBits) ){
+			throw new IllegalArgumentException("Checkpoint is for a different search.");
+		}
+		if( leaseTimeout < 1 ){
+			throw new IllegalArgumentException("Lease timeout must be positive.");
+		}
+		this.plaintext = pt.clone();
+		this.ciphertext = ct.clone();
+		this.numBits = numBits;
+		this.progress = progress;
+		this.leaseTimeout = leaseTimeout;
+		this.server = new ServerSocket(port);
+	}
+
+	public int getPort(){
+		return server.getLocalPort();
+	}
+
+	/*
+	 * Returns the progress, which may be saved with its own writer.
+	 */
+	public SearchCheckpoint getProgress(){
+		return progress;
+	}
+
+	/*
+	 * Starts accepting workers on a daemon thread, serving up to
+	 * DEFAULT_MAX_WORKERS of them at once.
+	 */
+	public void start(){
+		start(DEFAULT_MAX_WORKERS);
+	}
+
+	/*
+	 * Starts accepting workers on a daemon thread, serving up to maxWorkers
+	 * of them at once, each on a thread of its own. A connection made while
+	 * that many are open is closed straight away.
+	 */
+	public synchronized void start(int maxWorkers){
+		if( maxWorkers < 1 ){
+			throw new IllegalArgumentException("At least one worker must be served.");
+		}
+		startNanos = System.nanoTime();
+		update();
+		serving = new ThreadPoolExecutor(0, maxWorkers, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+				new ThreadFactory(){
+					public Thread newThread(Runnable r){
+						Thread t = new Thread(r, "akelarre-coordinator-worker");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		Thread acceptor = new Thread(new Runnable(){
+			public void run(){
+				accept();
+			}
+		}, "akelarre-coordinator");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/*
+	 * Accepts workers until the server is closed. Any other failure drops
+	 * the socket it happened on and backs off a little, so that it does
+	 * not turn into a busy loop.
+	 */
+	private void accept(){
+		while( true ){
+			Socket socket = null;
+			try{
+				socket = server.accept();
+				socket.setSoTimeout((int)Math.min(Integer.MAX_VALUE, leaseTimeout));
+				socket.setTcpNoDelay(true);
+			}catch( IOException e ){
+				if( server.isClosed() ){
+					return;
+				}
+				if( socket != null ){
+					try{
+						socket.close();
+					}catch( IOException ce ){
+						// already closed
+					}
+				}
+				try{
+					Thread.sleep(ACCEPT_BACKOFF_MILLIS);
+				}catch( InterruptedException ie ){
+					return;
+				}
+				continue;
+			}
+
+			final Connection c = new Connection(socket);
+			synchronized( this ){
+				connections.add(c);
+			}
+			try{
+				serving.execute(new Runnable(){
+					public void run(){
+						c.serve();
+					}
+				});
+			}catch( RejectedExecutionException e ){
+				// as many workers as allowed already, or closed
+				release(c);
+				c.close();
+			}
+		}
+	}
+
+	/*
+	 * Waits for the search to end and returns the lowest matching key, or
+	 * null if there is none.
+	 */
+	public synchronized int[] awaitResult() throws InterruptedException {
+		while( !finished ){
+			wait();
+		}
+		long k = progress.getBest();
+		return k < 0 ? null : new int[]{(int)k};
+	}
+
+	/*
+	 * Waits up to millis for the search to end and returns whether it has.
+	 */
+	public synchronized boolean awaitFinished(long millis) throws InterruptedException {
+		long end = System.currentTimeMillis() + millis;
+		long left;
+		while( !finished && (left = end - System.currentTimeMillis()) > 0 ){
+			wait(left);
+		}
+		return finished;
+	}
+
+	public synchronized boolean isFinished(){
+		return finished;
+	}
+
+	/*
+	 * Returns the keys tried in leases that have completed and, as of their
+	 * last heartbeat, in those still running.
+	 */
+	public synchronized long getKeysTested(){
+		long n = tested.sum();
+		for( long k : running.values() ){
+			n += k;
+		}
+		return n;
+	}
+
+	/*
+	 * Returns the keys tried per second over the whole search so far.
+	 */
+	public synchronized double getKeysPerSecond(){
+		long end = finished ? endNanos : System.nanoTime();
+		return end <= startNanos ? 0 : getKeysTested() * 1e9 / (end - startNanos);
+	}
+
+	/*
+	 * Returns the number of leases handed out again after their worker
+	 * died.
+	 */
+	public long getLeasesReissued(){
+		return reissued.sum();
+	}
+
+	/*
+	 * Stops accepting workers and drops the connections. The search ends
+	 * here if it has not already, so awaitResult() returns the lowest match
+	 * found so far.
+	 */
+	public void close() throws IOException {
+		synchronized( this ){
+			if( !finished ){
+				finished = true;
+				endNanos = System.nanoTime();
+				notifyAll();
+			}
+		}
+		server.close();
+		synchronized( this ){
+			if( serving != null ){
+				serving.shutdown();
+			}
+		}
+		Connection[] open;
+		synchronized( this ){
+			open = connections.toArray(new Connection[0]);
+		}
+		for( Connection c : open ){
+			c.close();
+		}
+	}
+
+	/*
+	 * Returns the first key of lease u.
+	 */
+	private long low(long u){
+		return progress.getFrom() + u * progress.getUnitKeys();
+	}
+
+	/*
+	 * Returns whether lease u can still hold the lowest match.
+	 */
+	private boolean needed(long u){
+		long best = progress.getBest();
+		return best < 0 || low(u) < best;
+	}
+
+	/*
+	 * Hands c the lowest lease that is neither done nor out, -1 if every
+	 * lease still needed is out, or -2 if the search is over.
+	 */
+	private synchronized long lease(Connection c){
+		if( finished ){
+			return -2;
+		}
+		for( long u=0;u<progress.getUnits() && needed(u);u++ ){
+			if( !progress.isDone(u) && !leased.containsKey(u) ){
+				leased.put(u, c);
+				return u;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Records a heartbeat and returns whether c still holds lease u and it
+	 * is still needed. A lease no longer needed is dropped, the worker
+	 * being told to cancel it, and the keys it tried are kept.
+	 */
+	private synchronized boolean heartbeat(Connection c,long u,long keys){
+		if( leased.get(u) != c ){
+			return false;
+		}
+		if( !needed(u) ){
+			leased.remove(u);
+			running.remove(u);
+			tested.add(keys);
+			return false;
+		}
+		running.put(u, keys);
+		return true;
+	}
+
+	/*
+	 * Returns whether key, -1 for no match, is a match the worker holding
+	 * lease u can have found: a key in the lease that encrypts the
+	 * plaintext to the ciphertext.
+	 */
+	private boolean verify(long u,long key){
+		if( key == -1 ){
+			return true;
+		}
+		if( u < 0 || u >= progress.getUnits() ){
+			return false;
+		}
+		long hi = Math.min(progress.getTo(), low(u) + progress.getUnitKeys());
+		if( key < low(u) || key >= hi ){
+			return false;
+		}
+		return Arrays.equals(new Akelarre(1,4,new int[]{(int)key}).encrypt(plaintext), ciphertext);
+	}
+
+	private synchronized void complete(Connection c,long u,long key,long keys){
+		if( leased.get(u) != c ){
+			return;
+		}
+		leased.remove(u);
+		running.remove(u);
+		tested.add(keys);
+		if( key >= 0 ){
+			progress.found(key);
+		}
+		progress.markDone(u);
+		update();
+	}
+
+	/*
+	 * Puts the leases of a dead connection back.
+	 */
+	private synchronized void release(Connection c){
+		connections.remove(c);
+		for( Iterator<Map.Entry<Long,Connection>> it = leased.entrySet().iterator();it.hasNext(); ){
+			Map.Entry<Long,Connection> e = it.next();
+			if( e.getValue() == c ){
+				it.remove();
+				running.remove(e.getKey());
+				reissued.increment();
+			}
+		}
+	}
+
+	/*
+	 * Ends the search once every lease that could hold a lower match is
+	 * done.
+	 */
+	private synchronized void update(){
+		if( finished ){
+			return;
+		}
+		for( long u=0;u<progress.getUnits() && needed(u);u++ ){
+			if( !progress.isDone(u) ){
+				return;
+			}
+		}
+		finished = true;
+		endNanos = System.nanoTime();
+		notifyAll();
+	}
+
+	/*
+	 * One worker.
+	 */
+	private class Connection {
+		private final Socket socket;
+
+		Connection(Socket socket){
+			this.socket = socket;
+		}
+
+		void serve(){
+			try{
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+				Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII);
+				String line;
+				while( (line = in.readLine()) != null ){
+					out.write(answer(line.trim().split(" ")) + "\n");
+					out.flush();
+				}
+			}catch( SocketTimeoutException e ){
+				// no heartbeat in time
+			}catch( IOException e ){
+				// connection lost
+			}catch( RuntimeException e ){
+				// malformed message or a false match
+			}finally{
+				release(this);
+				close();
+			}
+		}
+
+		String answer(String[] m){
+			if( m[0].equals("HELLO") ){
+				StringBuilder sb = new StringBuilder("SEARCH");
+				for( int w : plaintext ){
+					sb.append(' ').append(w);
+				}
+				for( int w : ciphertext ){
+					sb.append(' ').append(w);
+				}
+				return sb.append(' ').append(numBits).toString();
+			}
+			if( m[0].equals("LEASE") ){
+				long u = lease(this);
+				if( u == -2 ){
+					return "DONE " + progress.getBest();
+				}
+				if( u == -1 ){
+					return "WAIT " + WAIT_MILLIS;
+				}
+				long hi = Math.min(progress.getTo(), low(u) + progress.getUnitKeys());
+				return "RANGE " + u + " " + low(u) + " " + hi;
+			}
+			if( m[0].equals("HEARTBEAT") ){
+				return heartbeat(this, Long.parseLong(m[1]), Long.parseLong(m[2])) ? "OK" : "CANCEL";
+			}
+			if( m[0].equals("RESULT") ){
+				long u = Long.parseLong(m[1]), key = Long.parseLong(m[2]);
+				if( !verify(u, key) ){
+					throw new IllegalArgumentException("Key " + key + " is not a match in lease " + u);
+				}
+				complete(this, u, key, Long.parseLong(m[3]));
+				return "OK";
+			}
+			throw new IllegalArgumentException("Unknown message " + m[0]);
+		}
+
+		void close(){
+			try{
+				socket.close();
+			}catch( IOException e ){
+				// already closed
+			}
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package Coconut;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * Searches leases from a SearchCoordinator until the search is over. Each
+ * lease runs on a local ParallelBruteforceAttack while this thread sends
+ * a heartbeat every heartbeat milliseconds; if the coordinator answers
+ * CANCEL, because a lower match turned up or the lease was given to
+ * someone else, the local search is stopped.
+ *
+ * The heartbeat has to be well under the lease timeout of the
+ * coordinator, or a live worker is taken for dead.
+ *
+ * Sample Usage:
+ * new SearchWorker("coordinator.example", 4000, ForkJoinPool.commonPool(), 5000).run();
+ */
+public class SearchWorker implements Runnable {
+	private final String host;
+	private final int port;
+	private final ForkJoinPool pool;
+	private final long heartbeat;
+
+	private volatile ParallelBruteforceAttack current;
+	private volatile boolean stopped;
+	private long leases;
+
+	public static void main(String[] args){
+		if( args.length != 2 ){
+			System.out.println("Usage: java Coconut.SearchWorker <host> <port>");
+			System.exit(1);
+		}
+		SearchWorker worker = new SearchWorker(args[0],Integer.parseInt(args[1]),ForkJoinPool.commonPool(),5000);
+		worker.run();
+		System.out.println("Leases searched: " + worker.getLeases());
+	}
+
+	public SearchWorker(String host,int port,ForkJoinPool pool,long heartbeat){
+		if( heartbeat < 1 ){
+			throw new IllegalArgumentException("Heartbeat must be positive.");
+		}
+		this.host = host;
+		this.port = port;
+		this.pool = pool;
+		this.heartbeat = heartbeat;
+	}
+
+	/*
+	 * Works until the coordinator says the search is over, the connection
+	 * is lost or stop() is called.
+	 */
+	public void run(){
+		try( Socket socket = new Socket(host, port) ){
+			socket.setTcpNoDelay(true);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+			Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII);
+
+			String[] m = ask(in, out, "HELLO");
+			int[] pt = new int[4], ct = new int[4];
+			for( int i=0;i<4;i++ ){
+				pt[i] = Integer.parseInt(m[1+i]);
+				ct[i] = Integer.parseInt(m[5+i]);
+			}
+			int numBits = Integer.parseInt(m[9]);
+
+			while( !stopped ){
+				m = ask(in, out, "LEASE");
+				if( m[0].equals("DONE") ){
+					return;
+				}
+				if( m[0].equals("WAIT") ){
+					Thread.sleep(Long.parseLong(m[1]));
+					continue;
+				}
+				String id = m[1];
+				final long from = Long.parseLong(m[2]), to = Long.parseLong(m[3]);
+				final ParallelBruteforceAttack attack = new ParallelBruteforceAttack(pt,ct,numBits,pool,
+						ParallelBruteforceAttack.DEFAULT_UNIT_KEYS);
+				current = attack;
+				long st = System.nanoTime();
+				FutureTask<Long> task = new FutureTask<Long>(new Callable<Long>(){
+					public Long call(){
+						return attack.search(from, to);
+					}
+				});
+				new Thread(task, "akelarre-worker-lease-" + id).start();
+				Long key = null;
+				while( key == null ){
+					try{
+						key = task.get(heartbeat, TimeUnit.MILLISECONDS);
+					}catch( TimeoutException e ){
+						m = ask(in, out, "HEARTBEAT " + id + " " + attack.getKeysTested());
+						if( m[0].equals("CANCEL") || stopped ){
+							attack.cancel();
+						}
+					}
+				}
+				current = null;
+				if( !attack.isCancelled() ){
+					ask(in, out, "RESULT " + id + " " + key + " " + attack.getKeysTested() + " " + (System.nanoTime() - st));
+					leases++;
+				}
+			}
+		}catch( IOException e ){
+			// the coordinator is gone
+		}catch( InterruptedException e ){
+			Thread.currentThread().interrupt();
+		}catch( ExecutionException e ){
+			throw new IllegalStateException(e.getCause());
+		}finally{
+			ParallelBruteforceAttack attack = current;
+			if( attack != null ){
+				attack.cancel();
+			}
+		}
+	}
+
+	/*
+	 * Stops after the current lease, which is cancelled and left for
+	 * another worker.
+	 */
+	public void stop(){
+		stopped = true;
+		ParallelBruteforceAttack attack = current;
+		if( attack != null ){
+			attack.cancel();
+		}
+	}
+
+	/*
+	 * Returns the number of leases this worker completed.
+	 */
+	public long getLeases(){
+		return leases;
+	}
+
+	private static String[] ask(BufferedReader in,Writer out,String message) throws IOException {
+		out.write(message + "\n");
+		out.flush();
+		String line = in.readLine();
+		if( line == null ){
+			throw new IOException("Coordinator closed the connection.");
+		}
+		return line.split(" ");
+	}
+}
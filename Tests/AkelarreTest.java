@@ -4,8 +4,54 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import Akelarre.Akelarre;
+import Akelarre.AkelarreMetrics;
+import Akelarre.BlockEngine;
+import Akelarre.BlockEngines;
+import Akelarre.IncrementalKeyScheduler;
+import Akelarre.InterleavedEngine;
+import Akelarre.KeyBatch;
+import Akelarre.KeyScheduleCache;
 import Akelarre.KeyScheduler;
+import Akelarre.ScalarEngine;
+import Akelarre.ScheduledKey;
+import Akelarre.TableKeyScheduler;
+import Coconut.AkelarreAttacks;
+import Coconut.BacktrackAttack;
+import Coconut.BitAttack;
+import Coconut.BitslicedKeySearch;
+import Coconut.BruteforceAttack;
+import Coconut.ParallelBruteforceAttack;
+import Coconut.SearchCheckpoint;
+import Coconut.SearchCoordinator;
+import Coconut.SearchWorker;
 import junit.framework.TestCase;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /**
  * This class provides a way to test individual functions in the Akelarre
@@ -125,5 +171,1072 @@ public class AkelarreTest extends TestCase {
     	}
     }
 
+    /**
+     * Tests that the offset based block functions agree with encrypt and
+     * decrypt, for both the int[] and byte[] variants.
+     */
+    @Test
+    public void testBlockApi(){
+    	Akelarre k = new Akelarre(3,8,new int[]{0xADECF231,0xDBC87943});
+    	int[] plaintext = {1111,2222,3333,4444};
+    	int[] expected = k.encrypt(plaintext);
+
+    	int[] buf = new int[9];
+    	System.arraycopy(plaintext,0,buf,5,4);
+    	k.encryptBlock(buf,5,buf,1);
+    	for( int i=0;i<4;i++ ){
+    		assertEquals(expected[i],buf[1+i]);
+    	}
+    	k.decryptBlock(buf,1,buf,1);
+    	for( int i=0;i<4;i++ ){
+    		assertEquals(plaintext[i],buf[1+i]);
+    	}
+
+    	byte[] bytes = new byte[Akelarre.BLOCK_SIZE+3];
+    	for( int i=0;i<4;i++ ){
+    		bytes[3+4*i]   = (byte)(plaintext[i] >>> 24);
+    		bytes[3+4*i+1] = (byte)(plaintext[i] >>> 16);
+    		bytes[3+4*i+2] = (byte)(plaintext[i] >>> 8);
+    		bytes[3+4*i+3] = (byte) plaintext[i];
+    	}
+    	byte[] out = new byte[Akelarre.BLOCK_SIZE];
+    	k.encryptBlock(bytes,3,out,0);
+    	for( int i=0;i<4;i++ ){
+    		int w = (out[4*i] << 24) | ((out[4*i+1] & 0xFF) << 16) | ((out[4*i+2] & 0xFF) << 8) | (out[4*i+3] & 0xFF);
+    		assertEquals(expected[i],w);
+    	}
+    	k.decryptBlock(out,0,out,0);
+    	for( int i=0;i<Akelarre.BLOCK_SIZE;i++ ){
+    		assertEquals(bytes[3+i],out[i]);
+    	}
+    }
+
+    /**
+     * Tests that the interleaved engine encrypts each block exactly as the
+     * single block function does, with and without rotation, including the
+     * blocks left over after the groups of four.
+     */
+    @Test
+    public void testInterleavedEngine(){
+    	Random rand = new Random(7);
+    	for( int r=1;r<=5;r++ ){
+    		for( boolean rotate : new boolean[]{false,true} ){
+	    		Akelarre k = new Akelarre(r,8,new int[]{rand.nextInt(),rand.nextInt()});
+	    		k.doRotate = rotate;
+	    		int[] words = new int[4*11];
+	    		for( int i=0;i<words.length;i++ ){
+	    			words[i] = rand.nextInt();
+	    		}
+	    		int[] expected = words.clone();
+	    		for( int b=0;b<11;b++ ){
+	    			k.encryptBlock(expected,4*b,expected,4*b);
+	    		}
+
+	    		k.encryptBlocks(words,0,11);
+	    		for( int i=0;i<words.length;i++ ){
+	    			assertEquals(expected[i],words[i]);
+	    		}
+	    		k.decryptBlocks(words,0,11);
+	    		for( int b=0;b<11;b++ ){
+	    			k.decryptBlock(expected,4*b,expected,4*b);
+	    		}
+	    		for( int i=0;i<words.length;i++ ){
+	    			assertEquals(expected[i],words[i]);
+	    		}
+
+	    		// the engine itself, four blocks at a time, against the scalar one
+	    		int[] z = k.getKey().getEncryptionSubkeys(), scalar = words.clone();
+	    		new ScalarEngine().crypt(scalar,4,10,z,r,rotate);
+	    		new InterleavedEngine().crypt(words,4,10,z,r,rotate);
+	    		for( int i=0;i<words.length;i++ ){
+	    			assertEquals(scalar[i],words[i]);
+	    		}
+    		}
+    	}
+    }
+
+    /**
+     * Tests that the vector engine, when the Vector API is available,
+     * agrees with the scalar engine.
+     */
+    @Test
+    public void testVectorEngine(){
+    	BlockEngine vector = BlockEngines.vector();
+    	if( vector == null ){
+    		return;
+    	}
+    	BlockEngine scalar = BlockEngines.select("scalar");
+    	Random rand = new Random(11);
+    	for( int r=1;r<=4;r++ ){
+    		int[] k = new KeyScheduler(r,8).schedule(new int[]{rand.nextInt(),rand.nextInt()});
+    		int[] words = new int[4*37];
+    		for( int i=0;i<words.length;i++ ){
+    			words[i] = rand.nextInt();
+    		}
+    		int[] expected = words.clone();
+    		scalar.crypt(expected,0,37,k,r,false);
+    		vector.crypt(words,0,37,k,r,false);
+    		for( int i=0;i<words.length;i++ ){
+    			assertEquals(expected[i],words[i]);
+    		}
+    	}
+    }
+
+    /**
+     * Tests the hit, miss and eviction counting and the LRU order of the
+     * key schedule cache, and that the constructors leave the shared cache
+     * alone unless it is turned on.
+     */
+    @Test
+    public void testKeyScheduleCache(){
+    	KeyScheduleCache cache = new KeyScheduleCache(2);
+    	int[] k1 = {1,2}, k2 = {3,4}, k3 = {5,6};
+
+    	ScheduledKey s1 = cache.get(2,8,k1);
+    	KeyScheduler scheduler = new KeyScheduler(2,8);
+    	int[] Z = scheduler.schedule(k1);
+    	int[] D = scheduler.createDecryptionSubkeys(Z);
+    	int[] sZ = s1.getEncryptionSubkeys(), sD = s1.getDecryptionSubkeys();
+    	for( int i=0;i<Z.length;i++ ){
+    		assertEquals(Z[i],sZ[i]);
+    		assertEquals(D[i],sD[i]);
+    	}
+
+    	assertSame(s1,cache.get(2,8,new int[]{1,2}));
+    	assertEquals(1,cache.getHits());
+    	assertEquals(1,cache.getMisses());
+
+    	// same key, different rounds
+    	assertNotSame(s1,cache.get(3,8,k1));
+    	assertEquals(2,cache.getMisses());
+
+    	cache.get(2,8,k1);
+    	cache.get(2,8,k2);
+    	assertEquals(2,cache.size());
+    	assertEquals(1,cache.getEvictions());
+
+    	// k1 was used more recently than k2, so k2 goes first
+    	cache.get(2,8,k1);
+    	cache.get(2,8,k3);
+    	long misses = cache.getMisses();
+    	cache.get(2,8,k1);
+    	assertEquals(misses,cache.getMisses());
+    	cache.get(2,8,k2);
+    	assertEquals(misses+1,cache.getMisses());
+
+    	// the constructors only fill the shared cache when it is turned on
+    	KeyScheduleCache shared = KeyScheduleCache.shared();
+    	long sharedMisses = shared.getMisses();
+    	new Akelarre(2,8,new int[]{0x5eed,0x7e57});
+    	assertEquals(KeyScheduleCache.SHARED_ENABLED ? sharedMisses+1 : sharedMisses,shared.getMisses());
+    }
+
+    /**
+     * Tests that the two long representation encrypts exactly as the four
+     * int one, with and without rotation, that it gives the ciphertexts
+     * the four int one gave, and that its rotation agrees with rotl128.
+     */
+    @Test
+    public void testLongState(){
+    	Random rand = new Random(3);
+    	for( int r=1;r<=4;r++ ){
+    		for( boolean rotate : new boolean[]{false,true} ){
+	    		Akelarre k = new Akelarre(r,8,new int[]{rand.nextInt(),rand.nextInt()});
+	    		k.doRotate = rotate;
+	    		int[] plaintext = {rand.nextInt(),rand.nextInt(),rand.nextInt(),rand.nextInt()};
+	    		int[] expected = k.encrypt(plaintext);
+
+	    		long[] out = k.encrypt(((long)plaintext[0] << 32) | (plaintext[1] & 0xFFFFFFFFL),
+	    				((long)plaintext[2] << 32) | (plaintext[3] & 0xFFFFFFFFL));
+	    		assertEquals(expected[0],(int)(out[0] >>> 32));
+	    		assertEquals(expected[1],(int)out[0]);
+	    		assertEquals(expected[2],(int)(out[1] >>> 32));
+	    		assertEquals(expected[3],(int)out[1]);
+
+	    		k.decryptBlock(out,0,out,0);
+	    		assertEquals(plaintext[0],(int)(out[0] >>> 32));
+	    		assertEquals(plaintext[3],(int)out[1]);
+    		}
+    	}
+
+    	// known answers, from the four int round function the long one replaced
+    	int[] pt = {0x00112233,0x44556677,0x8899AABB,0xCCDDEEFF};
+    	int[][] known = {
+    			{0x708E5A9B,0x55840A60,0xD8E66AD0,0xEBB3F2C3},
+    			{0xEAE74460,0xB06006AA,0x027FF504,0xC4435734},
+    			{0xADD26482,0xA7E3F55F,0x19063747,0xF7EE707F},
+    			{0x647E15E0,0x1603732D,0x2D5EE13C,0x2BDA6716}};
+    	for( int c=0;c<known.length;c++ ){
+    		Akelarre k = new Akelarre(c < 2 ? 1 : 4,8,new int[]{0x01234567,0x89ABCDEF});
+    		k.doRotate = c % 2 == 1;
+    		assertTrue(Arrays.equals(known[c],k.encrypt(pt.clone())));
+    		long[] out = k.encrypt(0x0011223344556677L,0x8899AABBCCDDEEFFL);
+    		assertEquals(((long)known[c][0] << 32) | (known[c][1] & 0xFFFFFFFFL),out[0]);
+    		assertEquals(((long)known[c][2] << 32) | (known[c][3] & 0xFFFFFFFFL),out[1]);
+    		int[] back = new int[4];
+    		k.decryptBlock(known[c],0,back,0);
+    		assertTrue(Arrays.equals(pt,back));
+    	}
+
+    	for( int n=0;n<128;n++ ){
+    		int[] words = {rand.nextInt(),rand.nextInt(),rand.nextInt(),rand.nextInt()};
+    		long hi = ((long)words[0] << 32) | (words[1] & 0xFFFFFFFFL);
+    		long lo = ((long)words[2] << 32) | (words[3] & 0xFFFFFFFFL);
+    		Akelarre.rotl128(words,n);
+    		assertEquals(((long)words[0] << 32) | (words[1] & 0xFFFFFFFFL),Akelarre.rotl128Hi(hi,lo,n));
+    		assertEquals(((long)words[2] << 32) | (words[3] & 0xFFFFFFFFL),Akelarre.rotl128Lo(hi,lo,n));
+    	}
+    }
+
+    /**
+     * Tests that a scheduled key shared between threads gives every thread
+     * the same results, and that the decryption subkeys are only derived
+     * once something decrypts.
+     */
+    @Test
+    public void testScheduledKey() throws InterruptedException {
+    	final ScheduledKey key = ScheduledKey.schedule(4,8,new int[]{0x01234567,0x89ABCDEF});
+    	final int[] plaintext = {1111,2222,3333,4444};
+    	final int[] expected = new Akelarre(4,8,new int[]{0x01234567,0x89ABCDEF}).encrypt(plaintext);
+
+    	final int[] failures = new int[1];
+    	Thread[] threads = new Thread[4];
+    	for( int t=0;t<threads.length;t++ ){
+    		threads[t] = new Thread(){
+    			public void run(){
+    				Akelarre cipher = new Akelarre(key);
+    				for( int i=0;i<1000;i++ ){
+    					int[] out = cipher.encrypt(plaintext);
+    					int[] direct = new int[4];
+    					key.encryptBlock(plaintext,0,direct,0,false);
+    					for( int j=0;j<4;j++ ){
+    						if( out[j] != expected[j] || direct[j] != expected[j] ){
+    							synchronized( failures ){ failures[0]++; }
+    						}
+    					}
+    				}
+    			}
+    		};
+    		threads[t].start();
+    	}
+    	for( Thread t : threads ){
+    		t.join();
+    	}
+    	assertEquals(0,failures[0]);
+    	assertFalse(key.hasDecryptionSubkeys());
+
+    	int[] out = new Akelarre(key).decrypt(expected);
+    	assertTrue(key.hasDecryptionSubkeys());
+    	for( int i=0;i<4;i++ ){
+    		assertEquals(plaintext[i],out[i]);
+    	}
+    }
+
+    /**
+     * Tests that scheduling keys incrementally gives the same subkeys as
+     * scheduling each key from scratch, in whatever order keys arrive.
+     */
+    @Test
+    public void testIncrementalKeyScheduler(){
+    	KeyScheduler full = new KeyScheduler(4,8);
+    	IncrementalKeyScheduler inc = new IncrementalKeyScheduler(4,8);
+    	int[][] keys = {{0,0},{0,1},{0,0x10000},{0x12345678,0x10000},{0x12345678,0x10001},{-1,-1},{0,0}};
+    	for( int[] key : keys ){
+    		int[] Z = full.schedule(key);
+    		int[] K = inc.schedule(key);
+    		for( int i=0;i<Z.length;i++ ){
+    			assertEquals(Z[i],K[i]);
+    		}
+    	}
+
+    	int[] pt = {1111,2222,3333,4444};
+    	int[] out = new int[4];
+    	inc.encryptBlock(pt,0,out,0);
+    	int[] ct = new Akelarre(4,8,new int[]{0,0}).encrypt(pt);
+    	for( int i=0;i<4;i++ ){
+    		assertEquals(ct[i],out[i]);
+    	}
+    }
+
+    /**
+     * Tests that the table driven scheduler matches the original one for
+     * every subblock value.
+     */
+    @Test
+    public void testTableKeyScheduler(){
+    	KeyScheduler full = new KeyScheduler(2,8);
+    	KeyScheduler table = new TableKeyScheduler(2,8);
+    	for( int x=0;x<(1 << 16);x++ ){
+    		int[] key = {(x << 16) | (x ^ 0x5A5A), ~x};
+    		int[] Z = full.schedule(key);
+    		int[] T = table.schedule(key);
+    		for( int i=0;i<Z.length;i++ ){
+    			assertEquals(Z[i],T[i]);
+    		}
+    	}
+    }
+
+    /**
+     * Tests that a key batch encrypts like one cipher per key, with and
+     * without rotation, and finds the first matching key.
+     */
+    @Test
+    public void testKeyBatch(){
+    	Random rand = new Random(7);
+    	int[][] keys = new int[37][2];
+    	for( int[] key : keys ){
+    		key[0] = rand.nextInt();
+    		key[1] = rand.nextInt();
+    	}
+    	int[] pt = {rand.nextInt(),rand.nextInt(),rand.nextInt(),rand.nextInt()};
+
+    	BlockEngine vector = BlockEngines.vector();
+    	for( BlockEngine engine : new BlockEngine[]{new ScalarEngine(),vector} ){
+    		if( engine == null ) continue;
+    		KeyBatch batch = new KeyBatch(4,8,64,engine);
+    		batch.schedule(keys,0,keys.length);
+    		assertEquals(keys.length,batch.size());
+    		int[] out = new int[4*batch.size()];
+    		for( boolean rotate : new boolean[]{false,true} ){
+    			batch.doRotate = rotate;
+    			batch.encrypt(pt,out);
+    			for( int i=0;i<keys.length;i++ ){
+    				Akelarre ake = new Akelarre(4,8,keys[i]);
+    				ake.doRotate = rotate;
+    				int[] ct = ake.encrypt(pt);
+    				for( int w=0;w<4;w++ ){
+    					assertEquals(ct[w],out[w*batch.size()+i]);
+    				}
+    			}
+    		}
+    	}
+
+    	KeyBatch batch = new KeyBatch(4,8,64);
+    	batch.schedule(keys,0,keys.length);
+    	int[] ct = new Akelarre(4,8,keys[20]).encrypt(pt);
+    	assertEquals(20,batch.firstMatch(pt,ct));
+    	assertEquals(-1,batch.firstMatch(pt,new int[4]));
+
+    	KeyBatch range = new KeyBatch(1,4,100);
+    	range.scheduleRange(0xFFC0,100);
+    	KeyScheduler scheduler = new KeyScheduler(1,4);
+    	for( int i=0;i<100;i++ ){
+    		int[] Z = scheduler.schedule(new int[]{0xFFC0+i});
+    		int[] B = range.getSubkeys(i);
+    		for( int j=0;j<Z.length;j++ ){
+    			assertEquals(Z[j],B[j]);
+    		}
+    	}
+
+    	int[] target = new Akelarre(1,4,new int[]{3000}).encrypt(pt);
+    	BruteforceAttack attack = new BruteforceAttack(pt,target,12);
+    	assertEquals(attack.attack()[0],attack.batchAttack(100)[0]);
+    	assertNull(new BruteforceAttack(pt,target,8).batchAttack(100));
+    }
+
+    /**
+     * Tests the bitsliced search against one cipher per key, including the
+     * rotation amounts that hit the rotl31 and rotl1 edge cases, and that
+     * the bitsliced brute force finds the same key as the plain one.
+     */
+    @Test
+    public void testBitslicedKeySearch(){
+    	Random rand = new Random(5);
+    	for( int n=0;n<200;n++ ){
+    		int base = (n < 100 ? rand.nextInt() : rand.nextInt(1 << 16)) & ~63;
+    		int j = rand.nextInt(64);
+    		int[] pt = {rand.nextInt(),rand.nextInt(),rand.nextInt(),rand.nextInt()};
+    		int[] ct = new Akelarre(1,4,new int[]{base+j}).encrypt(pt);
+    		BitslicedKeySearch search = new BitslicedKeySearch(pt,ct);
+    		long mask = search.test(base);
+    		assertEquals(mask,new BitslicedKeySearch(search).test(base));
+    		for( int i=0;i<64;i++ ){
+    			int[] c = new Akelarre(1,4,new int[]{base+i}).encrypt(pt);
+    			boolean eq = c[0] == ct[0] && c[1] == ct[1] && c[2] == ct[2] && c[3] == ct[3];
+    			assertEquals(eq,((mask >>> i) & 1) != 0);
+    		}
+    	}
+
+    	int[] pt = {0x1234,0x2341,0x3412,0x4123};
+    	int[] ct = new Akelarre(1,4,new int[]{1000}).encrypt(pt);
+    	BruteforceAttack attack = new BruteforceAttack(pt,ct,10);
+    	assertEquals(attack.attack()[0],attack.bitslicedAttack()[0]);
+    	assertNull(new BruteforceAttack(pt,ct,9).bitslicedAttack());
+    }
+
+    /**
+     * Tests the metrics counters and histograms, reading them back through
+     * JMX, and when metrics are on that the cipher records to them.
+     */
+    @Test
+    public void testMetrics() throws Exception {
+    	assertEquals(0,AkelarreMetrics.LatencyHistogram.bucket(0));
+    	assertEquals(1,AkelarreMetrics.LatencyHistogram.bucket(1));
+    	assertEquals(10,AkelarreMetrics.LatencyHistogram.bucket(1000));
+    	assertEquals(63,AkelarreMetrics.LatencyHistogram.bucket(Long.MAX_VALUE));
+    	assertEquals(1023,AkelarreMetrics.LatencyHistogram.upperBound(10));
+
+    	AkelarreMetrics m = new AkelarreMetrics();
+    	m.block(true);
+    	m.block(false);
+    	m.blocks(true,10);
+    	m.bulk(160,1000);
+    	for( int i=0;i<99;i++ ){
+    		m.schedule(100);
+    	}
+    	m.schedule(100000);
+    	m.scheduled(5);
+    	assertEquals(11,m.getBlocksEncrypted());
+    	assertEquals(1,m.getBlocksDecrypted());
+    	assertEquals(192,m.getBytesProcessed());
+    	assertEquals(105,m.getKeySchedules());
+    	assertEquals(100,m.getKeyScheduleSamples());
+    	assertEquals(1099,m.getKeyScheduleMeanNanos());
+    	assertEquals(127,m.getKeyScheduleP99Nanos());
+    	assertEquals(99,m.getKeyScheduleHistogram()[7]);
+    	assertEquals(1,m.getBulkCalls());
+    	assertEquals(1023,m.getBulkP50Nanos());
+
+    	ObjectName name = new ObjectName("Akelarre:type=Metrics,name=test");
+    	MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    	m.register(name);
+    	try{
+    		assertEquals(192L,server.getAttribute(name,"BytesProcessed"));
+    		server.invoke(name,"reset",null,null);
+    		assertEquals(0L,server.getAttribute(name,"BlocksEncrypted"));
+    		assertEquals(0L,m.getBulkCalls());
+    	}finally{
+    		server.unregisterMBean(name);
+    	}
+
+    	if( AkelarreMetrics.ENABLED ){
+    		AkelarreMetrics shared = AkelarreMetrics.shared();
+    		assertTrue(server.isRegistered(new ObjectName(AkelarreMetrics.OBJECT_NAME)));
+    		long enc = shared.getBlocksEncrypted(), bytes = shared.getBytesProcessed();
+    		long calls = shared.getBulkCalls(), sched = shared.getKeySchedules();
+    		Akelarre ake = new Akelarre(ScheduledKey.schedule(4,8,new int[]{7,8}));
+    		ake.encryptBlock(new int[4],0,new int[4],0);
+    		ake.encryptBlocks(new int[12],0,3);
+    		assertEquals(enc+4,shared.getBlocksEncrypted());
+    		assertEquals(bytes+64,shared.getBytesProcessed());
+    		assertEquals(calls+1,shared.getBulkCalls());
+    		assertEquals(sched+1,shared.getKeySchedules());
+    	}
+    }
+
+    /**
+     * Tests that the bulk, key schedule and attack phase events reach a
+     * flight recording with their fields filled in.
+     */
+    @Test
+    public void testFlightRecorderEvents() throws Exception {
+    	File file = File.createTempFile("akelarre", ".jfr");
+    	jdk.jfr.Recording recording = new jdk.jfr.Recording();
+    	recording.enable("Akelarre.BulkCrypt");
+    	recording.enable("Akelarre.KeySchedule");
+    	recording.enable("Akelarre.AttackPhase");
+    	recording.start();
+
+    	new KeyScheduler(2,8).schedule(new int[]{1,2});
+    	Akelarre ake = new Akelarre(ScheduledKey.schedule(4,8,new int[]{3,4}));
+    	ake.encryptBlocks(new int[8],0,2);
+    	Random rand = new Random(6);
+    	int[][][] XY = randomPairs(rand,5,false);
+    	new BitAttack(XY[0],XY[1]).attack(4);
+    	new BacktrackAttack(XY[0],XY[1],4).solve();
+
+    	recording.stop();
+    	recording.dump(file.toPath());
+    	recording.close();
 
+    	int schedules = 0, bulk = 0, bitLevels = 0, depths = 0;
+    	try{
+    		for( jdk.jfr.consumer.RecordedEvent e : jdk.jfr.consumer.RecordingFile.readAllEvents(file.toPath()) ){
+    			String name = e.getEventType().getName();
+    			if( name.equals("Akelarre.KeySchedule") && e.getInt("rounds") == 2 ){
+    				assertEquals(8,e.getInt("keySize"));
+    				schedules++;
+    			}else if( name.equals("Akelarre.BulkCrypt") ){
+    				assertEquals(32,e.getLong("bytes"));
+    				assertEquals("BLOCKS",e.getString("mode"));
+    				assertTrue(e.getBoolean("encrypt"));
+    				bulk++;
+    			}else if( name.equals("Akelarre.AttackPhase") ){
+    				assertTrue(e.getLong("candidates") <= e.getLong("tested"));
+    				if( e.getString("attack").equals("BitAttack") ){
+    					bitLevels++;
+    				}else{
+    					depths++;
+    				}
+    			}
+    		}
+    	}finally{
+    		file.delete();
+    	}
+    	assertEquals(1,schedules);
+    	assertEquals(1,bulk);
+    	assertEquals(4,bitLevels);
+    	assertTrue(depths > 0);
+    }
+
+    /**
+     * Tests that the parallel key search finds the key the sequential one
+     * does, including none at all, with units small enough that many
+     * workers race, and that a cancelled search finds nothing.
+     */
+    @Test
+    public void testParallelBruteforceAttack(){
+    	ForkJoinPool pool = new ForkJoinPool(4);
+    	try{
+    		Random rand = new Random(7);
+    		int[] pt = {rand.nextInt(),rand.nextInt(),rand.nextInt(),rand.nextInt()};
+    		for( int n=0;n<20;n++ ){
+    			int key = rand.nextInt(1 << 14);
+    			int[] ct = new Akelarre(1,4,new int[]{key}).encrypt(pt);
+    			int[] expected = new BruteforceAttack(pt,ct,14).attack();
+    			ParallelBruteforceAttack attack = new ParallelBruteforceAttack(pt,ct,14,pool,100);
+    			int[] found = attack.attack();
+    			if( expected == null ){
+    				assertNull(found);
+    			}else{
+    				assertEquals(expected[0],found[0]);
+    			}
+    			assertTrue(attack.getKeysTested() > 0);
+    			assertTrue(attack.getKeysPerSecond() > 0);
+    		}
+
+    		// the end value is never tried, as in the sequential search
+    		int[] ct = new Akelarre(1,4,new int[]{(1 << 12) - 1}).encrypt(pt);
+    		assertNull(new ParallelBruteforceAttack(pt,ct,12,pool,64).attack());
+    		ParallelBruteforceAttack attack = new ParallelBruteforceAttack(pt,ct,13,pool,64);
+    		assertEquals((1 << 12) - 1,attack.attack()[0]);
+    		assertEquals(-1,attack.search(0,(1 << 12) - 1));
+    		assertEquals((1 << 12) - 1,attack.search((1 << 12) - 1,1 << 12));
+
+    		attack.cancel();
+    		assertNull(attack.attack());
+    	}finally{
+    		pool.shutdown();
+    	}
+    }
+
+    /**
+     * Tests that a checkpoint survives a save and load, that a damaged file
+     * is refused, and that a resumed search skips exactly the units the
+     * checkpoint has done and keeps the match it holds.
+     */
+    @Test
+    public void testSearchCheckpoint() throws Exception {
+    	ForkJoinPool pool = new ForkJoinPool(3);
+    	Path dir = Files.createTempDirectory("akelarre");
+    	Path file = dir.resolve("search.ckpt");
+    	try{
+    		int[] pt = {0x1234,0x2341,0x3412,0x4123};
+    		int key = 3000;
+    		int[] ct = new Akelarre(1,4,new int[]{key}).encrypt(pt);
+    		int[] expected = new BruteforceAttack(pt,ct,13).attack();
+
+    		SearchCheckpoint cp = new SearchCheckpoint(pt,ct,13,0,(1 << 13) - 1,128);
+    		assertEquals(64,cp.getUnits());
+    		cp.markDone(0);
+    		cp.markDone(63);
+    		cp.found(5000);
+    		cp.found(7000);
+    		cp.write(file);
+    		SearchCheckpoint read = SearchCheckpoint.read(file);
+    		assertTrue(read.matches(pt,ct,13));
+    		assertFalse(read.matches(pt,ct,12));
+    		assertEquals(2,read.getUnitsDone());
+    		assertTrue(read.isDone(0) && read.isDone(63) && !read.isDone(1));
+    		assertEquals(5000,read.getBest());
+
+    		byte[] data = Files.readAllBytes(file);
+    		data[40] ^= 1;
+    		Files.write(file,data);
+    		try{
+    			SearchCheckpoint.read(file);
+    			fail("Corrupt checkpoint read.");
+    		}catch( IOException e ){
+    		}
+    		Files.delete(file);
+
+    		// the unit of the key marked done is skipped, so nothing is found
+    		ParallelBruteforceAttack attack = new ParallelBruteforceAttack(pt,ct,13,pool,128);
+    		SearchCheckpoint skip = new SearchCheckpoint(pt,ct,13,0,attack.getEnd(),128);
+    		skip.markDone(expected[0] / 128);
+    		assertEquals(-1,attack.search(skip));
+    		assertEquals(skip.getUnits(),skip.getUnitsDone());
+
+    		// units below the key done, the rest found from scratch
+    		SearchCheckpoint half = new SearchCheckpoint(pt,ct,13,0,attack.getEnd(),128);
+    		for( int u=0;u<expected[0] / 128;u++ ){
+    			half.markDone(u);
+    		}
+    		assertEquals(expected[0],attack.search(half));
+    		assertTrue(attack.getKeysTested() <= 128);
+    		assertEquals(expected[0],half.getBest());
+
+    		// a full run saves its progress and a second one resumes from it
+    		assertEquals(expected[0],attack.attack(file,10)[0]);
+    		SearchCheckpoint saved = SearchCheckpoint.read(file);
+    		assertEquals(expected[0],saved.getBest());
+    		assertEquals(expected[0],attack.attack(file,10)[0]);
+    		assertEquals(0,attack.getKeysTested());
+
+    		try{
+    			new ParallelBruteforceAttack(pt,new int[4],13,pool,128).attack(file,10);
+    			fail("Checkpoint of another search used.");
+    		}catch( IllegalArgumentException e ){
+    		}
+
+    		// a writer that cannot save keeps its error and stopWriting throws
+    		SearchCheckpoint lost = new SearchCheckpoint(pt,ct,13,0,(1 << 13) - 1,128);
+    		lost.startWriting(dir.resolve("missing").resolve("search.ckpt"),5);
+    		for( int i=0;i<1000 && lost.getWriteFailure() == null;i++ ){
+    			Thread.sleep(5);
+    		}
+    		assertNotNull(lost.getWriteFailure());
+    		try{
+    			lost.stopWriting();
+    			fail("Failed save not reported.");
+    		}catch( UncheckedIOException e ){
+    			assertSame(e.getCause(),lost.getWriteFailure());
+    			assertEquals(1,e.getCause().getSuppressed().length);
+    		}
+    		lost.startWriting(file,1000);
+    		assertNull(lost.getWriteFailure());
+    		lost.stopWriting();
+    		assertNull(lost.getWriteFailure());
+
+    		// nor does a runtime failure stop the writer
+    		final AtomicInteger calls = new AtomicInteger();
+    		SearchCheckpoint flaky = new SearchCheckpoint(pt,ct,13,0,(1 << 13) - 1,128){
+    			@Override
+    			public void write(Path file) throws IOException {
+    				if( calls.incrementAndGet() <= 2 ){
+    					throw new IllegalStateException("flaky");
+    				}
+    				super.write(file);
+    			}
+    		};
+    		flaky.startWriting(file,5);
+    		for( int i=0;i<1000 && calls.get() < 4;i++ ){
+    			Thread.sleep(5);
+    		}
+    		assertTrue(calls.get() >= 4);
+    		assertTrue(flaky.getWriteFailure().getCause() instanceof IllegalStateException);
+    		flaky.stopWriting();
+    		assertTrue(SearchCheckpoint.read(file).matches(pt,ct,13));
+    	}finally{
+    		pool.shutdown();
+    		Files.deleteIfExists(file);
+    		Files.delete(dir);
+    	}
+    }
+
+    /**
+     * Tests a distributed search on loopback: two workers find the key the
+     * sequential search does, or nothing, a lease held by a worker that
+     * goes silent is handed out again, and workers past the limit are
+     * turned away.
+     */
+    @Test
+    public void testDistributedSearch() throws Exception {
+    	ForkJoinPool pool = new ForkJoinPool(2);
+    	try{
+    		int[] pt = {0x1234,0x2341,0x3412,0x4123};
+    		for( int key : new int[]{9000, (1 << 14) - 1} ){
+    			int[] ct = new Akelarre(1,4,new int[]{key}).encrypt(pt);
+    			int[] expected = new BruteforceAttack(pt,ct,14).attack();
+    			SearchCoordinator coordinator = new SearchCoordinator(pt,ct,14,0,1024,5000);
+    			try{
+    				coordinator.start();
+    				Thread[] workers = new Thread[2];
+    				for( int w=0;w<workers.length;w++ ){
+    					workers[w] = new Thread(new SearchWorker("localhost",coordinator.getPort(),pool,50));
+    					workers[w].start();
+    				}
+    				assertTrue(coordinator.awaitFinished(60000));
+    				int[] found = coordinator.awaitResult();
+    				if( expected == null ){
+    					assertNull(found);
+    				}else{
+    					assertEquals(expected[0],found[0]);
+    				}
+    				assertTrue(coordinator.getKeysTested() > 0);
+    				for( Thread t : workers ){
+    					t.join(10000);
+    					assertFalse(t.isAlive());
+    				}
+    			}finally{
+    				coordinator.close();
+    			}
+    		}
+
+    		// a worker takes the lease holding the key and goes silent
+    		int[] ct = new Akelarre(1,4,new int[]{100}).encrypt(pt);
+    		SearchCoordinator coordinator = new SearchCoordinator(pt,ct,12,0,512,300);
+    		Socket dead = null;
+    		try{
+    			coordinator.start();
+    			dead = new Socket("localhost",coordinator.getPort());
+    			BufferedReader in = new BufferedReader(new InputStreamReader(dead.getInputStream()));
+    			Writer out = new OutputStreamWriter(dead.getOutputStream());
+    			out.write("LEASE\n");
+    			out.flush();
+    			assertEquals("RANGE 0 0 512",in.readLine());
+
+    			SearchWorker worker = new SearchWorker("localhost",coordinator.getPort(),pool,50);
+    			Thread t = new Thread(worker);
+    			t.start();
+    			assertTrue(coordinator.awaitFinished(60000));
+    			assertEquals(100,coordinator.awaitResult()[0]);
+    			assertEquals(1,coordinator.getLeasesReissued());
+    			t.join(10000);
+    			assertTrue(worker.getLeases() > 0);
+    		}finally{
+    			if( dead != null ){
+    				dead.close();
+    			}
+    			coordinator.close();
+    		}
+
+    		// a worker reports a false match, and the coordinator is closed while a caller waits
+    		final SearchCoordinator closed = new SearchCoordinator(pt,ct,12,0,512,5000);
+    		Socket liar = null;
+    		try{
+    			closed.start();
+    			liar = new Socket("localhost",closed.getPort());
+    			BufferedReader in = new BufferedReader(new InputStreamReader(liar.getInputStream()));
+    			Writer out = new OutputStreamWriter(liar.getOutputStream());
+    			out.write("LEASE\nRESULT 0 0 0 0\n");
+    			out.flush();
+    			assertEquals("RANGE 0 0 512",in.readLine());
+    			assertNull(in.readLine());
+    			assertEquals(-1,closed.getProgress().getBest());
+    			assertEquals(1,closed.getLeasesReissued());
+    			assertFalse(closed.isFinished());
+
+    			final int[][] result = {{-2}};
+    			Thread waiter = new Thread(new Runnable(){
+    				public void run(){
+    					try{
+    						result[0] = closed.awaitResult();
+    					}catch( InterruptedException e ){
+    						// left as it was
+    					}
+    				}
+    			});
+    			waiter.start();
+    			closed.close();
+    			waiter.join(10000);
+    			assertFalse(waiter.isAlive());
+    			assertNull(result[0]);
+    		}finally{
+    			if( liar != null ){
+    				liar.close();
+    			}
+    			closed.close();
+    		}
+
+    		// a coordinator serving one worker closes a second connection at once
+    		SearchCoordinator single = new SearchCoordinator(pt,ct,12,0,512,5000);
+    		Socket first = null, second = null;
+    		try{
+    			single.start(1);
+    			first = new Socket("localhost",single.getPort());
+    			BufferedReader in = new BufferedReader(new InputStreamReader(first.getInputStream()));
+    			Writer out = new OutputStreamWriter(first.getOutputStream());
+    			out.write("LEASE\n");
+    			out.flush();
+    			assertEquals("RANGE 0 0 512",in.readLine());
+
+    			second = new Socket("localhost",single.getPort());
+    			assertEquals(-1,second.getInputStream().read());
+
+    			out.write("LEASE\n");
+    			out.flush();
+    			assertEquals("RANGE 1 512 1024",in.readLine());
+    		}finally{
+    			if( first != null ){
+    				first.close();
+    			}
+    			if( second != null ){
+    				second.close();
+    			}
+    			single.close();
+    		}
+    	}finally{
+    		pool.shutdown();
+    	}
+    }
+
+    /**
+     * Tests that BitAttack finds exactly the (a, e) of numBits bits that
+     * satisfy its equation for every pair of plaintexts, checked by trying
+     * them all.
+     */
+    @Test
+    public void testBitAttack(){
+    	Random rand = new Random(8);
+    	for( int n=0;n<10;n++ ){
+    		int[][][] XY = randomPairs(rand,BitAttack.NUM_PLAINTEXTS,false);
+    		int[][] X = XY[0], Y = XY[1];
+    		int bits = n < 5 ? 6 : 8;
+    		ArrayList<int[]> pairs = new BitAttack(X,Y).attack(bits);
+    		Set<Long> found = new HashSet<Long>();
+    		if( pairs != null ){
+    			for( int[] p : pairs ){
+    				assertTrue(found.add(pack(p[0],p[1])));
+    			}
+    		}
+    		assertEquals(satisfying(X,Y,bits,false),found);
+    	}
+    }
+
+    /**
+     * Tests that bitBruteforceSubkeyAttack gives the same candidates in the
+     * same order whether or not its frontier spills to disk, and that they
+     * are the (a, e), with no bit of a outside e, that satisfy the equation
+     * for every pair of plaintexts.
+     */
+    @Test
+    public void testBitBruteforceSubkeyAttack(){
+    	Random rand = new Random(22);
+    	for( int n=0;n<6;n++ ){
+    		int[][][] XY = randomPairs(rand,4,false);
+    		int[][] X = XY[0], Y = XY[1];
+    		int bits = 8;
+    		AkelarreAttacks attacks = new AkelarreAttacks(X,Y);
+    		ArrayList<int[]> vals = attacks.bitBruteforceSubkeyAttack(bits);
+    		Set<Long> found = new HashSet<Long>();
+    		for( int[] v : vals ){
+    			assertTrue(found.add(pack(v[0],v[1])));
+    			assertEquals((X[0][0]+v[0])^(Y[0][0]-v[1])^X[0][2]^Y[0][2],v[2]);
+    		}
+    		assertEquals(satisfying(X,Y,bits,true),found);
+    		for( int budget : new int[]{2,6,128} ){
+    			ArrayList<int[]> spilled = attacks.bitBruteforceSubkeyAttack(bits,budget);
+    			assertEquals(vals.size(),spilled.size());
+    			for( int i=0;i<vals.size();i++ ){
+    				assertTrue(Arrays.equals(vals.get(i),spilled.get(i)));
+    			}
+    		}
+    	}
+
+    	// every candidate passes when the pairs are all the same, 3^10 of them
+    	int[][] X = new int[4][], Y = new int[4][];
+    	for( int i=0;i<X.length;i++ ){
+    		X[i] = new int[]{1,2,3,4};
+    		Y[i] = new int[]{5,6,7,8};
+    	}
+    	AkelarreAttacks attacks = new AkelarreAttacks(X,Y);
+    	final ArrayList<int[]> vals = attacks.bitBruteforceSubkeyAttack(10);
+    	final int[] seen = {0};
+    	long n = attacks.bitBruteforceSubkeyAttack(10,4096,new Consumer<int[]>(){
+    		public void accept(int[] v){
+    			assertTrue(Arrays.equals(vals.get(seen[0]++),v));
+    		}
+    	});
+    	assertEquals(59049,n);
+    	assertEquals(59049,vals.size());
+    	assertEquals(59049,seen[0]);
+    }
+
+    /**
+     * Tests that the iterative and the parallel backtracking searches find
+     * the choice the recursive one does, including none at all.
+     */
+    @Test
+    public void testBacktrackSolve(){
+    	Random rand = new Random(23);
+    	ForkJoinPool pool = new ForkJoinPool(4);
+    	int found = 0;
+    	try{
+    		for( int n=0;n<60;n++ ){
+    			int[][][] XY = randomPairs(rand,n % 3 == 0 ? 2 : 5,n % 2 == 0);
+    			int[][] X = XY[0], Y = XY[1];
+    			int bits = n % 12;
+    			BacktrackAttack attack = new BacktrackAttack(X,Y,bits);
+    			BacktrackAttack.Choice expected = attack.solve(attack.new Choice());
+    			BacktrackAttack.Choice[] got = {attack.solve(),attack.parallelSolve(pool)};
+    			for( BacktrackAttack.Choice ch : got ){
+    				if( expected == null ){
+    					assertNull(ch);
+    				}else{
+    					assertEquals(expected.shift,ch.shift);
+    					assertTrue(Arrays.equals(expected.set,ch.set));
+    				}
+    			}
+    			if( expected != null ){
+    				found++;
+    			}
+    		}
+    	}finally{
+    		pool.shutdown();
+    	}
+    	assertTrue(found > 0 && found < 60);
+    }
+
+    /**
+     * Tests that the solutions of a BacktrackAttack come in the order the
+     * recursive search meets them, one after another, split by hand, and
+     * from a parallel stream.
+     */
+    @Test
+    public void testBacktrackSolutions(){
+    	Random rand = new Random(24);
+    	int many = 0;
+    	for( int n=0;n<40;n++ ){
+    		int[][][] XY = randomPairs(rand,n % 2 == 0 ? 2 : 3,false);
+    		int[][] X = XY[0], Y = XY[1];
+    		int bits = 4 + n % 9;
+    		BacktrackAttack attack = new BacktrackAttack(X,Y,bits);
+
+    		List<Long> expected = new ArrayList<Long>();
+    		ArrayDeque<BacktrackAttack.Choice> stack = new ArrayDeque<BacktrackAttack.Choice>();
+    		stack.push(attack.new Choice());
+    		while( !stack.isEmpty() ){
+    			BacktrackAttack.Choice ch = stack.pop();
+    			if( attack.solved(ch) ){
+    				expected.add(pack(ch.set[0],ch.set[1]));
+    				continue;
+    			}
+    			BacktrackAttack.Choice[] next = attack.choices(ch);
+    			for( int i=next.length-1;i>=0;i-- ){
+    				stack.push(next[i]);
+    			}
+    		}
+    		if( expected.size() > 1 ){
+    			many++;
+    		}
+
+    		List<Long> found = new ArrayList<Long>();
+    		for( Iterator<BacktrackAttack.Choice> it = attack.iterator();it.hasNext(); ){
+    			BacktrackAttack.Choice ch = it.next();
+    			assertEquals(bits,ch.shift);
+    			found.add(pack(ch.set[0],ch.set[1]));
+    		}
+    		assertEquals(expected,found);
+
+    		List<Spliterator<BacktrackAttack.Choice>> parts = new ArrayList<Spliterator<BacktrackAttack.Choice>>();
+    		parts.add(attack.spliterator());
+    		for( int i=0;i<parts.size() && parts.size() < 16; ){
+    			Spliterator<BacktrackAttack.Choice> prefix = parts.get(i).trySplit();
+    			if( prefix == null ){
+    				i++;
+    			}else{
+    				parts.add(i, prefix);
+    			}
+    		}
+    		final List<Long> split = new ArrayList<Long>();
+    		for( Spliterator<BacktrackAttack.Choice> part : parts ){
+    			part.forEachRemaining(new Consumer<BacktrackAttack.Choice>(){
+    				public void accept(BacktrackAttack.Choice ch){
+    					split.add(pack(ch.set[0],ch.set[1]));
+    				}
+    			});
+    		}
+    		assertEquals(expected,split);
+
+    		List<Long> parallel = attack.solutions().parallel().map(new Function<BacktrackAttack.Choice,Long>(){
+    			public Long apply(BacktrackAttack.Choice ch){
+    				return pack(ch.set[0],ch.set[1]);
+    			}
+    		}).collect(Collectors.<Long>toList());
+    		assertEquals(expected,parallel);
+    		assertEquals(Math.min(2,expected.size()),attack.solutions().limit(2).count());
+    	}
+    	assertTrue(many > 0);
+    }
+
+    /**
+     * Tests the backtracking searches against the recursive one with
+     * hundreds of pairs, made so that a chosen (a, e) satisfies every
+     * pair at every bit.
+     */
+    @Test
+    public void testBacktrackManyPairs(){
+    	Random rand = new Random(25);
+    	for( int pairs : new int[]{20,64,65,130,300} ){
+    		int a = rand.nextInt(), e = rand.nextInt();
+    		int[][] X = new int[pairs][], Y = new int[pairs][];
+    		for( int i=0;i<pairs;i++ ){
+    			X[i] = randomBlock(rand);
+    			Y[i] = randomBlock(rand);
+    		}
+    		for( int i=0;i<pairs-1;i++ ){
+    			int c = X[i][0]^Y[i][0]^X[i][2]^Y[i][2]^X[i+1][0]^Y[i+1][0]^X[i+1][2]^Y[i+1][2];
+    			int carry = (((-e) & (X[i+1][0]^Y[i+1][0])) ^ (a & (X[i][0]^Y[i][0]))) << 1;
+    			Y[i+1][2] ^= c ^ carry;
+    		}
+    		for( int bits : new int[]{8,20,31} ){
+    			BacktrackAttack attack = new BacktrackAttack(X,Y,bits);
+    			BacktrackAttack.Choice expected = attack.solve(attack.new Choice());
+    			assertNotNull(expected);
+    			assertTrue(Arrays.equals(expected.set,attack.solve().set));
+    			assertTrue(Arrays.equals(expected.set,attack.parallelSolve().set));
+
+    			int mask = bits == 31 ? -1 : (1 << (bits+1)) - 1;
+    			boolean truth = false;
+    			for( Iterator<BacktrackAttack.Choice> it = attack.iterator();it.hasNext(); ){
+    				BacktrackAttack.Choice ch = it.next();
+    				truth |= ch.set[0] == (a & mask) && ch.set[1] == (e & mask);
+    			}
+    			assertTrue(truth);
+    		}
+    	}
+    }
+
+    /**
+     * Returns a block of four random words.
+     */
+    private static int[] randomBlock(Random rand){
+    	return new int[]{rand.nextInt(),rand.nextInt(),rand.nextInt(),rand.nextInt()};
+    }
+
+    /**
+     * Returns {X, Y}: n random plaintexts and their encryptions under a
+     * one round Akelarre with a random key.
+     */
+    private static int[][][] randomPairs(Random rand,int n,boolean rotate){
+    	int[][] X = new int[n][], Y = new int[n][];
+    	Akelarre ake = new Akelarre(1,8,new int[]{rand.nextInt(),rand.nextInt()});
+    	ake.doRotate = rotate;
+    	for( int i=0;i<n;i++ ){
+    		X[i] = randomBlock(rand);
+    		Y[i] = ake.encrypt(X[i]);
+    	}
+    	return new int[][][]{X,Y};
+    }
+
+    /**
+     * Packs a and e into a long, a in the high word.
+     */
+    private static long pack(int a,int e){
+    	return ((long)a << 32) | (e & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the packed (a, e) of numBits bits, with no bit of a outside e
+     * if covered, that satisfy the equation of the bit attacks for every
+     * pair of plaintexts, found by trying them all.
+     */
+    private static Set<Long> satisfying(int[][] X,int[][] Y,int numBits,boolean covered){
+    	int mask = (1 << numBits) - 1;
+    	Set<Long> found = new HashSet<Long>();
+    	for( int a=0;a<=mask;a++ ){
+    		for( int e=0;e<=mask;e++ ){
+    			boolean ok = !covered || (a & ~e) == 0;
+    			for( int i=0;i<X.length-1 && ok;i++ ){
+    				ok = (((X[i][0]+a)^(X[i+1][0]+a)^(Y[i][0]-e)^(Y[i+1][0]-e))&mask)
+    						== ((X[i][2]^X[i+1][2]^Y[i][2]^Y[i+1][2])&mask);
+    			}
+    			if( ok ){
+    				found.add(pack(a,e));
+    			}
+    		}
+    	}
+    	return found;
+    }
 }
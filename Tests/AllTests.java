@@ -15,6 +15,7 @@ public class AllTests {
 		TestSuite suite = new TestSuite("Test for Tests");
 		//$JUnit-BEGIN$
 		suite.addTestSuite(AkelarreTest.class);
+		suite.addTestSuite(ModeEngineTest.class);
 		//$JUnit-END$
 		return suite;
 	}
@@ -0,0 +1,344 @@
+package Tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.AlgorithmParameters;
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Before;
+import org.junit.Test;
+import Akelarre.Akelarre;
+import Akelarre.AkelarreInputStream;
+import Akelarre.AkelarreOutputStream;
+import Akelarre.AkelarreProvider;
+import Akelarre.FileEncryptor;
+import Akelarre.ModeEngine;
+import Akelarre.ModeEngine.Mode;
+import Akelarre.ParallelModeEngine;
+import junit.framework.TestCase;
+
+/**
+ * Tests the block cipher modes and bulk paths built on top of the Akelarre
+ * cipher.
+ *
+ */
+public class ModeEngineTest extends TestCase {
+
+	private Akelarre cipher;
+	private byte[] iv;
+	private Random rand;
+
+	/**
+	 * Create a cipher and an IV for each test.
+	 */
+	@Before
+	public void setUp() {
+		cipher = new Akelarre(4,8,new int[]{0xADECF231,0xDBC87943});
+		rand = new Random(42);
+		iv = new byte[Akelarre.BLOCK_SIZE];
+		rand.nextBytes(iv);
+	}
+
+	/**
+	 * Encrypts and decrypts messages of assorted lengths in every mode.
+	 */
+	@Test
+	public void testRoundTrip(){
+		for( Mode mode : Mode.values() ){
+			for( int len : new int[]{0,1,15,16,17,100,1000} ){
+				byte[] pt = new byte[len];
+				rand.nextBytes(pt);
+				byte[] ct = new ModeEngine(cipher,mode,true,iv).doFinal(pt,0,len);
+				if( mode == Mode.CTR ){
+					assertEquals(len,ct.length);
+				}else{
+					assertEquals((len/16+1)*16,ct.length);
+				}
+				byte[] out = new ModeEngine(cipher,mode,false,iv).doFinal(ct,0,ct.length);
+				assertTrue(mode + " " + len,Arrays.equals(pt,out));
+			}
+		}
+	}
+
+	/**
+	 * Tests that the modes chain blocks the way they are defined to.
+	 */
+	@Test
+	public void testModeDefinitions(){
+		byte[] pt = new byte[48];
+		rand.nextBytes(pt);
+		byte[] ecb = new ModeEngine(cipher,Mode.ECB,true,null,false).doFinal(pt,0,pt.length);
+		byte[] cbc = new ModeEngine(cipher,Mode.CBC,true,iv,false).doFinal(pt,0,pt.length);
+		byte[] ctr = new ModeEngine(cipher,Mode.CTR,true,iv).doFinal(pt,0,pt.length);
+
+		byte[] block = new byte[16];
+		cipher.encryptBlock(pt,16,block,0);
+		assertTrue(Arrays.equals(block,Arrays.copyOfRange(ecb,16,32)));
+
+		for( int i=0;i<16;i++ ){
+			block[i] = (byte)(pt[16+i] ^ cbc[i]);
+		}
+		cipher.encryptBlock(block,0,block,0);
+		assertTrue(Arrays.equals(block,Arrays.copyOfRange(cbc,16,32)));
+
+		byte[] counter = iv.clone();
+		counter[15]++;
+		cipher.encryptBlock(counter,0,block,0);
+		for( int i=0;i<16;i++ ){
+			assertEquals(pt[16+i] ^ block[i],ctr[16+i]);
+		}
+	}
+
+	/**
+	 * Tests that feeding data in uneven pieces gives the same output as a
+	 * single call.
+	 */
+	@Test
+	public void testChunkedUpdate(){
+		byte[] pt = new byte[333];
+		rand.nextBytes(pt);
+		for( Mode mode : Mode.values() ){
+			for( boolean enc : new boolean[]{true,false} ){
+				byte[] in = enc ? pt : new ModeEngine(cipher,mode,true,iv).doFinal(pt,0,pt.length);
+				byte[] expected = new ModeEngine(cipher,mode,enc,iv).doFinal(in,0,in.length);
+
+				ModeEngine engine = new ModeEngine(cipher,mode,enc,iv);
+				byte[] out = new byte[engine.getOutputSize(in.length)];
+				int off = 0, pos = 0;
+				while( pos < in.length ){
+					int len = Math.min(in.length - pos, 1 + rand.nextInt(40));
+					off += engine.update(in,pos,len,out,off);
+					pos += len;
+				}
+				off += engine.doFinal(out,off);
+				assertTrue(mode + " " + enc,Arrays.equals(expected,Arrays.copyOf(out,off)));
+			}
+		}
+	}
+
+	/**
+	 * Tests update() with the input and output overlapping in one array,
+	 * the output behind, on or ahead of the input, with and without bytes
+	 * already buffered.
+	 */
+	@Test
+	public void testOverlappingUpdate(){
+		byte[] pt = new byte[200];
+		rand.nextBytes(pt);
+		for( Mode mode : Mode.values() ){
+			for( boolean enc : new boolean[]{true,false} ){
+				byte[] in = enc ? pt : new ModeEngine(cipher,mode,true,iv).doFinal(pt,0,pt.length);
+				byte[] expected = new ModeEngine(cipher,mode,enc,iv).doFinal(in,0,in.length);
+				for( int head : new int[]{0,5} ){
+					for( int shift : new int[]{-17,-5,0,1,5,16,33} ){
+						ModeEngine engine = new ModeEngine(cipher,mode,enc,iv);
+						byte[] out = new byte[engine.getOutputSize(in.length)];
+						int off = engine.update(in,0,head,out,0);
+						byte[] shared = new byte[in.length + 100];
+						System.arraycopy(in,head,shared,50,in.length-head);
+						int n = engine.update(shared,50,in.length-head,shared,50+shift);
+						System.arraycopy(shared,50+shift,out,off,n);
+						off += n;
+						off += engine.doFinal(out,off);
+						assertTrue(mode + " " + enc + " " + head + " " + shift,Arrays.equals(expected,Arrays.copyOf(out,off)));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tests that direct and heap ByteBuffers give the same output as byte
+	 * arrays.
+	 */
+	@Test
+	public void testByteBuffers(){
+		byte[] pt = new byte[200];
+		rand.nextBytes(pt);
+		for( Mode mode : Mode.values() ){
+			byte[] expected = new ModeEngine(cipher,mode,true,iv).doFinal(pt,0,pt.length);
+
+			ByteBuffer in = ByteBuffer.allocateDirect(pt.length);
+			in.put(pt).flip();
+			ByteBuffer out = ByteBuffer.allocateDirect(expected.length);
+			new ModeEngine(cipher,mode,true,iv).doFinal(in,out);
+			assertEquals(0,out.remaining());
+			out.flip();
+			byte[] got = new byte[out.remaining()];
+			out.get(got);
+			assertTrue(mode.toString(),Arrays.equals(expected,got));
+
+			ByteBuffer heap = ByteBuffer.allocate(expected.length);
+			new ModeEngine(cipher,mode,true,iv).doFinal(ByteBuffer.wrap(pt),heap);
+			assertTrue(mode.toString(),Arrays.equals(expected,heap.array()));
+		}
+	}
+
+	/**
+	 * Tests that corrupted padding is rejected.
+	 */
+	@Test
+	public void testBadPadding(){
+		byte[] ct = new ModeEngine(cipher,Mode.ECB,true,null,false).doFinal(new byte[16],0,16);
+		try{
+			new ModeEngine(cipher,Mode.ECB,false,null).doFinal(ct,0,ct.length);
+			fail("Expected bad padding");
+		}catch( IllegalArgumentException e ){}
+	}
+
+	/**
+	 * Tests that the parallel engine produces the same bytes as the
+	 * sequential one.
+	 */
+	@Test
+	public void testParallelMatchesSequential(){
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try{
+			for( Mode mode : Mode.values() ){
+				for( int len : new int[]{0,5,16,4095,4096,70000} ){
+					byte[] pt = new byte[len];
+					rand.nextBytes(pt);
+					ParallelModeEngine parallel = new ParallelModeEngine(cipher,mode,iv,pool,256);
+
+					byte[] expected = new ModeEngine(cipher,mode,true,iv).doFinal(pt,0,len);
+					byte[] ct = parallel.encrypt(pt,0,len);
+					assertTrue(mode + " " + len,Arrays.equals(expected,ct));
+					assertTrue(mode + " " + len,Arrays.equals(pt,parallel.decrypt(ct,0,ct.length)));
+				}
+			}
+		}finally{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that the streams produce the same bytes as the engine.
+	 */
+	@Test
+	public void testStreams() throws IOException {
+		byte[] pt = new byte[100003];
+		rand.nextBytes(pt);
+		for( Mode mode : Mode.values() ){
+			byte[] expected = new ModeEngine(cipher,mode,true,iv).doFinal(pt,0,pt.length);
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			OutputStream out = new AkelarreOutputStream(bytes,new ModeEngine(cipher,mode,true,iv),1000);
+			out.write(pt,0,10);
+			out.write(pt[10]);
+			out.write(pt,11,pt.length-11);
+			out.close();
+			assertTrue(mode.toString(),Arrays.equals(expected,bytes.toByteArray()));
+
+			InputStream in = new AkelarreInputStream(new ByteArrayInputStream(expected),new ModeEngine(cipher,mode,false,iv),1000);
+			byte[] got = in.readAllBytes();
+			in.close();
+			assertTrue(mode.toString(),Arrays.equals(pt,got));
+		}
+	}
+
+	/**
+	 * Tests that files are encrypted window by window to the same bytes as
+	 * the engine.
+	 */
+	@Test
+	public void testFileEncryptor() throws IOException {
+		Path plain = Files.createTempFile("akelarre",".pt");
+		Path enc = Files.createTempFile("akelarre",".ct");
+		Path dec = Files.createTempFile("akelarre",".out");
+		try{
+			byte[] pt = new byte[10007];
+			rand.nextBytes(pt);
+			Files.write(plain,pt);
+			for( Mode mode : Mode.values() ){
+				FileEncryptor files = new FileEncryptor(cipher,mode,iv,4096);
+				byte[] expected = new ModeEngine(cipher,mode,true,iv).doFinal(pt,0,pt.length);
+				assertEquals(expected.length,files.encrypt(plain,enc));
+				assertTrue(mode.toString(),Arrays.equals(expected,Files.readAllBytes(enc)));
+				assertEquals(pt.length,files.decrypt(enc,dec));
+				assertTrue(mode.toString(),Arrays.equals(pt,Files.readAllBytes(dec)));
+			}
+		}finally{
+			Files.delete(plain);
+			Files.delete(enc);
+			Files.delete(dec);
+		}
+	}
+
+	/**
+	 * Tests the cipher through the JCA provider, including the ByteBuffer
+	 * path between direct buffers, handing the IV over as parameters and
+	 * refusing the wrap modes.
+	 */
+	@Test
+	public void testProvider() throws Exception {
+		SecretKeySpec key = new SecretKeySpec(new byte[]{
+				(byte)0xAD,(byte)0xEC,(byte)0xF2,0x31,(byte)0xDB,(byte)0xC8,0x79,0x43},"Akelarre");
+		byte[] pt = new byte[1000];
+		rand.nextBytes(pt);
+		for( Mode mode : Mode.values() ){
+			String padding = mode == Mode.CTR ? "NoPadding" : "PKCS5Padding";
+			Cipher c = Cipher.getInstance("Akelarre/" + mode + "/" + padding, new AkelarreProvider());
+			if( mode == Mode.ECB ){
+				c.init(Cipher.ENCRYPT_MODE,key);
+			}else{
+				c.init(Cipher.ENCRYPT_MODE,key,new IvParameterSpec(iv));
+			}
+			byte[] expected = new ModeEngine(cipher,mode,true,iv).doFinal(pt,0,pt.length);
+			assertTrue(mode.toString(),Arrays.equals(expected,c.doFinal(pt)));
+
+			ByteBuffer in = ByteBuffer.allocateDirect(pt.length);
+			in.put(pt).flip();
+			ByteBuffer out = ByteBuffer.allocateDirect(c.getOutputSize(pt.length));
+			in.limit(333);
+			c.update(in,out);
+			in.limit(pt.length);
+			c.doFinal(in,out);
+			out.flip();
+			byte[] got = new byte[out.remaining()];
+			out.get(got);
+			assertTrue(mode.toString(),Arrays.equals(expected,got));
+
+			if( mode == Mode.ECB ){
+				c.init(Cipher.DECRYPT_MODE,key);
+			}else{
+				c.init(Cipher.DECRYPT_MODE,key,new IvParameterSpec(iv));
+			}
+			assertTrue(mode.toString(),Arrays.equals(pt,c.doFinal(expected)));
+
+			// the parameters of a cipher that made its own IV decrypt what it encrypted
+			c.init(Cipher.ENCRYPT_MODE,key);
+			byte[] ct = c.doFinal(pt);
+			AlgorithmParameters params = c.getParameters();
+			if( mode == Mode.ECB ){
+				assertNull(params);
+				continue;
+			}
+			assertTrue(Arrays.equals(c.getIV(),params.getParameterSpec(IvParameterSpec.class).getIV()));
+			AlgorithmParameters copy = AlgorithmParameters.getInstance("Akelarre",new AkelarreProvider());
+			copy.init(params.getEncoded());
+			Cipher d = Cipher.getInstance("Akelarre/" + mode + "/" + padding, new AkelarreProvider());
+			d.init(Cipher.DECRYPT_MODE,key,copy);
+			assertTrue(mode.toString(),Arrays.equals(pt,d.doFinal(ct)));
+		}
+
+		Cipher c = Cipher.getInstance("Akelarre/ECB/PKCS5Padding", new AkelarreProvider());
+		try{
+			c.init(Cipher.WRAP_MODE,key);
+			fail("Wrap mode accepted.");
+		}catch( InvalidParameterException e ){
+		}
+	}
+}